@@ -5,20 +5,45 @@ import static test.utilities.Utilities.isEmpty;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 import test.TestFixture;
 
 /**
  * helper class that defines counters that can be used to track impact of defensive programming.
  * 
+ * asserts are also counted by call site, without walking the stack on every
+ * call. every lazy assert passes a lambda, and each lambda in the source has
+ * its own class, so the call site is looked up once per lambda class and
+ * cached. the boolean asserts have nothing to key on, so when
+ * <code>assertions.site.sample.interval</code> is set, one call in the
+ * interval is attributed to its call site and counted for the whole interval.
+ * it is off by default, and only sampled while assertions are enabled, since
+ * each sample captures the stack.
+ * 
  * @author patrick
  *
  */
 public final class Assert implements TestFixture {
 
+	// true when assertions are enabled for this class. read once, so that
+	// the jit drops the lazy asserts entirely when they are disabled.
+	private static final boolean ENABLED;
+	static {
+		boolean enabled = false;
+		assert enabled = true;
+		ENABLED = enabled;
+	}
+
 	// executor
 	private static final ExecutorService executor = Executors.newSingleThreadExecutor();
 	
@@ -51,13 +76,40 @@ public final class Assert implements TestFixture {
 	// add named counters
 	static final Map<String,AtomicLong> counters = Collections.synchronizedMap( new HashMap<String,AtomicLong>() );
 
+	/**
+	 * system property with how often boolean asserts are attributed to their
+	 * call site. defaults to 0, off.
+	 */
+	public static final String SITE_SAMPLE_INTERVAL = "assertions.site.sample.interval";
+
+	// suffix of the call sites counted by sampling
+	static final String SAMPLED = " (sampled)";
+
+	// call site counters, by call site
+	static final ConcurrentMap<String,LongAdder> sites = new ConcurrentHashMap<String,LongAdder>();
+
+	// counter of the call site of each lazy assert lambda, looked up on first use
+	private static final ClassValue<LongAdder> lazySites = new ClassValue<LongAdder>() {
+		@Override protected LongAdder computeValue(final Class<?> type) {
+			return site( callerOf( new Throwable().getStackTrace() ) );
+		}
+	};
+
+	// boolean asserts left on this thread until the next sampled one
+	private static final int sampleInterval = Integer.getInteger( SITE_SAMPLE_INTERVAL, 0 );
+	private static final ThreadLocal<int[]> untilSample = new ThreadLocal<int[]>() {
+		@Override protected int[] initialValue() {
+			return new int[] { 1 };
+		}
+	};
+
 	
 	/**
 	 * anonymous wrapper around 
 	 * @param condition
 	 */
 	public static void _assert( boolean condition ){
-		// TODO get use case name from stack trace?		
+		// call sites are attributed by sampling, see evaluate
 		// increment global counters in background thread
 		evaluate( incrementAnonymous, condition);
 	}
@@ -71,6 +123,15 @@ public final class Assert implements TestFixture {
 		// increment the counter specified and the global counter
 		executor.execute( incrementGlobal );
 		executor.execute( incrementCounter );
+
+		// attribute one call in every interval to its call site
+		if( ENABLED && (sampleInterval > 0) ) {
+			final int[] left = untilSample.get();
+			if( --left[0] == 0 ) {
+				left[0] = sampleInterval;
+				site( callerOf( new Throwable().getStackTrace() ) + SAMPLED ).add( sampleInterval );
+			}
+		}
 		
 		// evaluate the assertion
 		assert condition;
@@ -87,6 +148,123 @@ public final class Assert implements TestFixture {
 		evaluate( isEmpty(name) ? incrementAnonymous : getIncrementCounterAction( name ), condition);
 	}
 
+	/**
+	 * lazy anonymous assert. the condition is only evaluated, and the
+	 * counters only updated, when assertions are enabled.
+	 * 
+	 * @param condition
+	 */
+	public static void _assert( BooleanSupplier condition ){
+		if( ENABLED ) {
+			evaluate( incrementAnonymous, condition, null );
+		}
+	}
+
+	/**
+	 * lazy anonymous assert with a message that is only built if it fails.
+	 * 
+	 * @param condition
+	 * @param message
+	 */
+	public static void _assert( BooleanSupplier condition, Supplier<String> message ){
+		if( ENABLED ) {
+			evaluate( incrementAnonymous, condition, message );
+		}
+	}
+
+	/**
+	 * lazy named assert
+	 * 
+	 * @param name counter name
+	 * @param condition
+	 */
+	public static void _assert(String name, BooleanSupplier condition) {
+		if( ENABLED ) {
+			evaluate( isEmpty(name) ? incrementAnonymous : getIncrementCounterAction( name ), condition, null );
+		}
+	}
+
+	/**
+	 * lazy named assert with a message that is only built if it fails.
+	 * 
+	 * @param name counter name
+	 * @param condition
+	 * @param message
+	 */
+	public static void _assert(String name, BooleanSupplier condition, Supplier<String> message) {
+		if( ENABLED ) {
+			evaluate( isEmpty(name) ? incrementAnonymous : getIncrementCounterAction( name ), condition, message );
+		}
+	}
+
+	/**
+	 * evaluate the lazy condition. only called when assertions are enabled.
+	 * 
+	 * @param incrementCounter
+	 * @param condition
+	 * @param message may be <code>null</code>
+	 */
+	private static void evaluate(Runnable incrementCounter, BooleanSupplier condition, Supplier<String> message) {
+		// increment the counter specified and the global counter
+		executor.execute( incrementGlobal );
+		executor.execute( incrementCounter );
+		lazySites.get( condition.getClass() ).increment();
+
+		// evaluate the assertion
+		if( !condition.getAsBoolean() ) {
+			throw message == null ? new AssertionError() : new AssertionError( message.get() );
+		}
+	}
+
+	/**
+	 * @param name call site
+	 * @return the counter for the call site
+	 */
+	private static LongAdder site(final String name) {
+		LongAdder counter = sites.get( name );
+		if( counter == null ) {
+			final LongAdder created = new LongAdder();
+			counter = sites.putIfAbsent( name, created );
+			if( counter == null ) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * @param stack stack trace taken inside this class
+	 * @return the first frame outside this class and its nested classes, as
+	 *         class, method, file and line
+	 */
+	static String callerOf(final StackTraceElement[] stack) {
+		final String name = Assert.class.getName();
+		final String nested = name + "$";
+		int i = stack.length - 1;
+		while( (i >= 0) && !stack[i].getClassName().equals( name ) && !stack[i].getClassName().startsWith( nested ) ) {
+			i--;
+		}
+		return i + 1 < stack.length ? stack[i + 1].toString() : "unknown";
+	}
+
+	/**
+	 * @return snapshot of the call site counters, by call site
+	 */
+	public static Map<String, Long> getSiteCounts() {
+		final Map<String, Long> counts = new TreeMap<String, Long>();
+		for( final Entry<String, LongAdder> site : sites.entrySet() ) {
+			counts.put( site.getKey(), site.getValue().sum() );
+		}
+		return counts;
+	}
+
+	/**
+	 * @return <code>true</code> if assertions are enabled for this class
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
 	/**
 	 * create an increment action for the counter associated with the given counter name.
 	 * @param name of counter
@@ -113,6 +291,10 @@ public final class Assert implements TestFixture {
 	public static final void reset() {
 		global.set( 0l );
 		anonymous.set( 0l );
-		counters.clear();		
+		counters.clear();
+		// keep the sites, lazy asserts hold on to their counters
+		for( final LongAdder site : sites.values() ) {
+			site.reset();
+		}
 	}
 }
@@ -1,6 +1,10 @@
 package common;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import test.TestFixture;
@@ -58,6 +62,47 @@ public class AssertTestHelper implements TestFixture {
         return anonymous.get();
     }
 
+    /**
+     * helper method for tests to return a snapshot of the named counters. It
+     * allows tests to access the default scoped 'counters' member of Assert.
+     *
+     * @return counter values by name, sorted by name
+     * @throws NoSuchFieldException 
+     * @throws IllegalAccessException 
+     * @throws SecurityException 
+     * @throws IllegalArgumentException 
+     */
+    public static Map<String, Long> getNamedAssertionCounts() throws IllegalArgumentException, SecurityException, IllegalAccessException, NoSuchFieldException {
+    	final Field field = assertClass.getDeclaredField( "counters" );
+    	field.setAccessible( true );
+    	@SuppressWarnings("unchecked")
+		final Map<String, AtomicLong> counters = (Map<String, AtomicLong>) field.get( null );
+    	final Map<String, Long> counts = new TreeMap<String, Long>();
+    	synchronized( counters ) {
+    		for( final Entry<String, AtomicLong> counter : counters.entrySet() ) {
+    			counts.put( counter.getKey(), counter.getValue().get() );
+    		}
+    	}
+        return counts;
+    }
+
+    /**
+     * helper method for tests to return a snapshot of the call site counters.
+     * sites counted by sampling end with " (sampled)".
+     *
+     * @return counter values by call site, or an empty map if the Assert class has no call site counters
+     * @throws IllegalAccessException 
+     * @throws InvocationTargetException 
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Long> getAssertionSiteCounts() throws IllegalAccessException, InvocationTargetException {
+        try {
+            return (Map<String, Long>) assertClass.getMethod( "getSiteCounts" ).invoke( null );
+        } catch( final NoSuchMethodException e ) {
+            return new TreeMap<String, Long>();
+        }
+    }
+
     /**
      * helper method that allows tests to reset the counters in the Assert framework.
      * @throws NoSuchMethodException 
@@ -0,0 +1,21 @@
+package test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * marks a fixture method as an actor for the stress test. an actor takes the
+ * shared component as its only parameter and returns its part of the
+ * outcome. every actor runs on its own thread, and all actors start each
+ * round together against the same fresh component.
+ *
+ * @author patrick
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Actor {
+
+}
@@ -1,22 +1,34 @@
 package test;
 
+import static common.AssertTestHelper.getAssertionSiteCounts;
 import static common.AssertTestHelper.getGlobalAssertionCount;
 import static test.utilities.Utilities.isEmpty;
 
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import test.utilities.MemoryFootprint;
+import test.utilities.Statistics;
+
 /**
  * this class sets up the basic test framework. it defines how to configure
  * runtime environment, test data, and defines template methods so that
@@ -45,6 +57,37 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 	static final String MUST_CONTAIN = "the parameter map for '%s' must contain a '%s' field.";
 	static final String ASSERTION_COUNT = "%d assertions were evaluated during the %s test.";
 	static final String STARTING = "starting '%s' test for '%s'.";
+	static final String FOOTPRINT = "the %s takes %d bytes of heap (%s).";
+	static final String FOOTPRINT_TOO_LARGE = "the %s takes %d bytes of heap, more than the %d bytes allowed by '%s'.";
+	static final String CPU_USAGE = "the %s test used %.2f seconds of cpu (%.2f user) in %.2f seconds: %.2f of %d cores%s.";
+	static final String OVERSUBSCRIBED = ", oversubscribed with %d users";
+	static final String USERS_REJECTED = "%d of %d users were rejected by the '%s' executor, the thread safety test did not run with every user.";
+	static final String MUST_PROVIDE_EXECUTOR = "'%s' must override getProductionExecutor to use the PROVIDED executor strategy.";
+	static final String COMPARISON = "%s of B compared to A: %+.2f%% (%.0f%% confidence interval %+.2f%% to %+.2f%%), wilcoxon p = %.4f%s.";
+	static final String SIGNIFICANT = ", significant";
+	static final String TRIAL = "trial %d of the %s test: %.2f calls per second%s.";
+	static final String OUTLIER = " (outlier%s)";
+	static final String TRIALS_SUMMARY = "%d trials of the %s test: mean %.2f calls per second, standard deviation %.2f, %.0f%% confidence interval %.2f to %.2f, coefficient of variation %.3f.";
+	static final String TOO_NOISY = "warning: the %s test is too noisy to trust, the coefficient of variation %.3f is above %.3f.";
+	static final String SKIPPED_ASSERTION_COUNT = "%d assertions were skipped by sampling during the %s test.";
+	static final String HOTTEST_SITES = "hottest runtime defensive programming assertion sites during the %s test:";
+	static final String SITE = "%12d  %s";
+	static final String UNSAMPLED_SITES = "plain _assert(boolean) calls are not attributed to their sites, set '%s' to sample them.";
+
+	static final String WITHIN_BUDGET = "the %s test is within its performance budget (%s).";
+	static final String OVER_BUDGET = "the %s test is over its performance budget (%s): %s.";
+	static final String CALIBRATION_MEASURED = "calibration factor %.2f, measured on this host with a spread of %.1f%%";
+	static final String CALIBRATION_PINNED = "calibration factor %.2f, pinned by '%s'";
+	static final String NOT_CALIBRATED = "budgets not calibrated";
+	static final String P99_OVER_BUDGET = "p99 latency %.3f ms is above the %.3f ms allowed by '%s' (%.3f ms scaled by calibration factor %.2f)";
+	static final String OPS_UNDER_BUDGET = "throughput %.2f calls per second is below the %.2f allowed by '%s' (%.2f scaled by calibration factor %.2f)";
+	static final String BYTES_OVER_BUDGET = "%d bytes allocated per call is above the %d allowed by '%s'";
+	static final String SCALING_UNDER_BUDGET = "scaling efficiency %.2f with %d users is below the %.2f allowed by '%s' (%.2f calls per second against %.2f for one user)";
+
+	/**
+	 * confidence level used when reporting statistics
+	 */
+	static final double CONFIDENCE = 0.99;
 
 	/**
 	 * provides ability to randomize some aspects of the test if necessary.
@@ -103,11 +146,326 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 	 */
 	protected static final String NUMBER_OF_SIMULTANEOUS_USERS = "number.of.simultaneous.users";
 
+	/**
+	 * set this property in the performance or thread safety parameter map to
+	 * only evaluate every nth assertion made through the assertion wrappers.
+	 * the functional test always evaluates every assertion. pass expensive
+	 * conditions as a <code>BooleanSupplier</code> so that skipping the
+	 * assertion also skips computing them.
+	 */
+	protected static final String ASSERTION_SAMPLE_INTERVAL = "assertion.sample.interval";
+
+	/**
+	 * set this property (a value between 0 and 1) in the performance or thread
+	 * safety parameter map to only evaluate a random fraction of the assertions
+	 * made through the assertion wrappers. the functional test always evaluates
+	 * every assertion.
+	 */
+	protected static final String ASSERTION_SAMPLE_RATE = "assertion.sample.rate";
+
+	/**
+	 * set this property in the parameter map returned by
+	 * <code>getThreadSafetyTestingParameters</code> to run the thread safety
+	 * workload as a soak test: every user keeps calling
+	 * <code>verifyFunctionality</code> until this many seconds have elapsed.
+	 */
+	protected static final String SOAK_DURATION = "soak.duration.seconds";
+
+	/**
+	 * seconds between snapshots of throughput, latency and post gc heap usage
+	 * during a soak test. each snapshot forces a full collection to measure
+	 * the heap. the soak test fails when it is too short for four snapshots.
+	 * defaults to 10.
+	 */
+	protected static final String SOAK_SNAPSHOT_INTERVAL = "soak.snapshot.interval.seconds";
+
+	/**
+	 * the soak test fails if the trend of post gc heap usage grows by more
+	 * than this fraction over the run. defaults to 0.25.
+	 */
+	protected static final String SOAK_MAX_HEAP_GROWTH = "soak.max.heap.growth";
+
+	/**
+	 * the soak test fails if the trend of throughput drops by more than this
+	 * fraction over the run. defaults to 0.25.
+	 */
+	protected static final String SOAK_MAX_THROUGHPUT_DROP = "soak.max.throughput.drop";
+
+	/**
+	 * the executor that runs the simulated users in the thread safety test,
+	 * as an <code>ExecutorStrategy</code> or its name. defaults to an
+	 * unbounded cached pool.
+	 */
+	protected static final String EXECUTOR_STRATEGY = "executor.strategy";
+
+	/**
+	 * queue capacity for the <code>BOUNDED</code> executor strategy. defaults
+	 * to twice the number of cores.
+	 */
+	protected static final String EXECUTOR_QUEUE_SIZE = "executor.queue.size";
+
+	/**
+	 * number of times to repeat the performance or thread safety test, set in
+	 * the matching parameter map. with more than one trial the throughput of
+	 * the trials is summarized with its mean, standard deviation and
+	 * confidence interval. each trial makes <code>NUM_ITEMS</code> calls per
+	 * user rather than a random number of them. defaults to 1.
+	 */
+	protected static final String TRIALS = "trials";
+
+	/**
+	 * set this property to <code>true</code> to leave outlier trials out of the
+	 * summary. outliers are always marked.
+	 */
+	protected static final String DISCARD_OUTLIERS = "discard.outliers";
+
+	/**
+	 * the summary warns that the run is too noisy to trust when the
+	 * coefficient of variation of the trials is above this value. defaults to
+	 * 0.1.
+	 */
+	protected static final String MAX_VARIATION = "max.coefficient.of.variation";
+
+	/**
+	 * max 99th percentile latency of a call in milliseconds, set in the
+	 * parameter map of the performance or thread safety test. overrides the
+	 * <code>@PerformanceBudget</code> of the fixture. scaled by the calibration
+	 * factor.
+	 */
+	protected static final String BUDGET_MAX_P99_MILLIS = "budget.max.p99.millis";
+
+	/**
+	 * min calls per second, averaged over the trials. scaled by the
+	 * calibration factor.
+	 */
+	protected static final String BUDGET_MIN_OPS_PER_SECOND = "budget.min.ops.per.second";
+
+	/**
+	 * max bytes allocated per call, including the test data generated for it.
+	 * only checked on jvms that can measure allocation per thread.
+	 */
+	protected static final String BUDGET_MAX_BYTES_PER_OPERATION = "budget.max.bytes.per.operation";
+
+	/**
+	 * min throughput of the thread safety test as a fraction of the
+	 * performance test throughput times the number of simultaneous users.
+	 */
+	protected static final String BUDGET_MIN_SCALING_EFFICIENCY = "budget.min.scaling.efficiency";
+
+	/**
+	 * set this property to <code>false</code> to check latency and throughput
+	 * budgets as written, without scaling them by the speed of the machine.
+	 */
+	protected static final String CALIBRATE_BUDGETS = "calibrate.budgets";
+
+	/**
+	 * length in milliseconds of the intervals to record latency over during
+	 * the thread safety test, set in the parameter map returned by
+	 * <code>getThreadSafetyTestingParameters</code>. when it is set, an
+	 * interval log and a csv of throughput and percentiles over time are
+	 * written. 100 is a good value.
+	 */
+	protected static final String INTERVAL_MILLIS = "interval.millis";
+
+	/**
+	 * set this property to <code>true</code> in the parameter map of the
+	 * performance or thread safety test to sample the stacks of the users
+	 * while they run, and write them in collapsed stack format for flame
+	 * graphs.
+	 */
+	protected static final String PROFILE = "profile";
+
+	/**
+	 * milliseconds between stack samples. defaults to 10.
+	 */
+	protected static final String PROFILE_INTERVAL_MILLIS = "profile.interval.millis";
+
+	/**
+	 * the sample interval is doubled whenever a sample takes more than this
+	 * fraction of it. defaults to 0.02.
+	 */
+	protected static final String PROFILE_MAX_OVERHEAD = "profile.max.overhead";
+
+	/**
+	 * the thread safety test is stopped and fails when a user goes this many
+	 * seconds without completing a call. defaults to 0, which turns the check
+	 * off, so slow fixtures are not failed unless they ask for it. deadlocks
+	 * are always detected. the stress test fails the same way when an actor
+	 * waits this long for the others to finish a batch. users blocked on a
+	 * monitor can't be interrupted when the test is stopped, they are left
+	 * running.
+	 */
+	protected static final String OPERATION_TIMEOUT = "operation.timeout.seconds";
+
+	/**
+	 * the thread safety test is stopped and fails when a run takes longer
+	 * than this many seconds. each trial is a run. defaults to no limit.
+	 */
+	protected static final String PHASE_TIMEOUT = "phase.timeout.seconds";
+
+	/**
+	 * the thread safety test is stopped and fails when the throughput per
+	 * user stays below this fraction of its peak for five seconds, for
+	 * example 0.01. calls that take longer than that look like a collapse,
+	 * so the check is off unless this is set above 0.
+	 */
+	protected static final String THROUGHPUT_COLLAPSE = "throughput.collapse.fraction";
+
+	/**
+	 * set this property in the parameter map returned by
+	 * <code>getThreadSafetyTestingParameters</code> to run the users of the
+	 * thread safety test in this many worker jvms on the same machine instead
+	 * of in this one. each worker gets its own component from
+	 * <code>getComponentUnderTest</code>, so this suits components that talk
+	 * to a server, such as the stand-in started by
+	 * <code>startLocalServer</code>. workers that have not reported when
+	 * <code>PHASE_TIMEOUT</code> runs out are killed. defaults to 0, in this
+	 * jvm.
+	 */
+	protected static final String WORKER_PROCESSES = "worker.processes";
+
+	/**
+	 * extra jvm arguments for the worker jvms, separated by spaces, such as
+	 * <code>-Xmx512m</code>.
+	 */
+	protected static final String WORKER_JVM_ARGS = "worker.jvm.args";
+
+	/**
+	 * set this property to <code>true</code> in the parameter map returned by
+	 * <code>getFunctionalTestingParameters</code> to reuse the last result of
+	 * the fixture while neither the fixture, the component, the parameters nor
+	 * the jvm changed. the <code>test.harness.result.cache</code> system
+	 * property turns it on for every fixture, and
+	 * <code>test.harness.full.run</code> forces a full run. results are only
+	 * cached when every parameter is a string, number, boolean, character or
+	 * enum.
+	 */
+	protected static final String CACHE_RESULTS = "cache.results";
+
+	/**
+	 * a result older than this many hours is measured again. defaults to 24.
+	 */
+	protected static final String RESULT_MAX_AGE = "result.max.age.hours";
+
+	/**
+	 * a result is measured again after it has been reused this many times.
+	 * defaults to 10.
+	 */
+	protected static final String FULL_RUN_EVERY = "full.run.every";
+
+	/**
+	 * set this property to <code>false</code> to skip the functional test too
+	 * when the result is reused. defaults to <code>true</code>.
+	 */
+	protected static final String ALWAYS_RUN_FUNCTIONAL = "always.run.functional";
+
+	/**
+	 * how the <code>@Operation</code> methods of a fixture are spread over the
+	 * users of the thread safety test: the name of a
+	 * <code>WorkloadMix</code>. defaults to <code>MIXED</code>.
+	 */
+	protected static final String WORKLOAD_MIX = "workload.mix";
+
+	/**
+	 * number of block pairs for the a/b comparison, set in the parameter map
+	 * returned by <code>getPerformanceTestingParameters</code>. defaults to 30.
+	 */
+	protected static final String COMPARISON_BLOCKS = "comparison.blocks";
+
+	/**
+	 * number of calls in each block of the a/b comparison. defaults to 100.
+	 */
+	protected static final String COMPARISON_BLOCK_SIZE = "comparison.block.size";
+
+	/**
+	 * number of rounds for the stress test, set in the parameter map returned
+	 * by <code>getThreadSafetyTestingParameters</code>. the stress test only
+	 * runs for fixtures with <code>@Actor</code> methods. defaults to
+	 * 1,000,000; set it to 0 to skip the stress test.
+	 */
+	protected static final String STRESS_ROUNDS = "stress.rounds";
+
+	/**
+	 * set this property to <code>true</code> in the parameter map returned by
+	 * <code>getFunctionalTestingParameters</code> to report the retained heap
+	 * size of the component under test and of its test data.
+	 */
+	protected static final String MEASURE_FOOTPRINT = "measure.footprint";
+
+	/**
+	 * the functional test fails if the component under test retains more than
+	 * this many bytes of heap. setting it turns on footprint measurement.
+	 */
+	protected static final String MAX_COMPONENT_FOOTPRINT = "max.component.footprint.bytes";
+
+	/**
+	 * the functional test fails if a test data item retains more than this
+	 * many bytes of heap. setting it turns on footprint measurement.
+	 */
+	protected static final String MAX_TEST_DATA_FOOTPRINT = "max.test.data.footprint.bytes";
+
+	/**
+	 * set this property to <code>true</code> in the parameter map returned by
+	 * <code>getFunctionalTestingParameters</code> to measure the cost of the
+	 * first component and the first calls before the functional test runs.
+	 */
+	protected static final String MEASURE_COLD_START = "measure.cold.start";
+
+	/**
+	 * set this property to <code>true</code> along with
+	 * <code>MEASURE_COLD_START</code> to take the measurement in a fresh jvm,
+	 * so that classes and compiled code from earlier fixtures do not hide the
+	 * real cold start cost. the fresh jvm gets the heap settings, assertions
+	 * and harness properties of this one, and is stopped after 5 minutes.
+	 */
+	protected static final String COLD_START_IN_FRESH_JVM = "cold.start.fresh.jvm";
+
+	/**
+	 * the max number of calls to wait for latency to settle during the cold
+	 * start measurement. defaults to 1000.
+	 */
+	protected static final String COLD_START_MAX_CALLS = "cold.start.max.calls";
+
+	/**
+	 * set this property to <code>true</code> in a parameter map to keep the
+	 * data returned by <code>generateTestData</code> in a snapshot file between
+	 * runs. the data must be serializable. the snapshot is rebuilt when the
+	 * parameters, the fixture class or its superclasses change; change
+	 * <code>SNAPSHOT_KEY</code> when other classes the data generator uses
+	 * change. during the performance and thread safety tests each user reads
+	 * its own copy once and reuses it for every call.
+	 */
+	protected static final String SNAPSHOT_TEST_DATA = "snapshot.test.data";
+
+	/**
+	 * optional value identifying the test data for snapshots. when it is not
+	 * set, the snapshot is keyed by every parameter that does not change from
+	 * user to user, and those must all be strings, numbers, booleans,
+	 * characters or enums.
+	 */
+	protected static final String SNAPSHOT_KEY = "snapshot.key";
+
+	/**
+	 * value of <code>System.nanoTime()</code> at which soak test users stop
+	 */
+	private static final String SOAK_DEADLINE = "soak.deadline";
+
+	/**
+	 * name of the only operation a user runs, when the workload is split into
+	 * roles
+	 */
+	private static final String OPERATION_ROLE = "operation.role";
+
 	/**
      *
      */
 	private static final String BASIC_PERFORMANCE_TESTING_MESSAGE_TEMPLATE = "%s %s %s in %s seconds.";
 
+	/**
+	 * number of assertion sites to report per phase
+	 */
+	private static final int HOTTEST_SITE_COUNT = 10;
+
 	/**
 	 * the userId to use in the test
 	 */
@@ -118,6 +476,24 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 	 */
 	protected ExecutorService executioners = null;
 
+	/**
+	 * mean throughput of the performance test, for the scaling efficiency
+	 * budget
+	 */
+	private double singleUserThroughput = 0;
+
+	/**
+	 * the <code>@Operation</code> methods of the fixture, or
+	 * <code>null</code> if it only has <code>verifyFunctionality</code>
+	 */
+	private Workload workload = null;
+
+	/**
+	 * off-heap memory for the test data of the current phase, or
+	 * <code>null</code> until the fixture asks for it
+	 */
+	private volatile DataArena arena = null;
+
 	/**
 	 * junit wrapper to keep track of the number of assertions that were
 	 * actually evaluated during test execution.
@@ -125,11 +501,73 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 	private final JunitWrapper junitWrapper = new JunitWrapper();
 
 	/**
-	 * initialize the background process runner
+	 * initialize the background process runner. the executor is reserved for
+	 * this fixture until the test is done, then handed back for reuse.
 	 */
 	@Before
 	public final void initializeTestServices() {
-		executioners = Executors.newCachedThreadPool();
+		executioners = HarnessExecutors.checkout(ExecutorStrategy.CACHED, 0);
+	}
+
+	/**
+	 * hand the background process runner back for other fixtures to use
+	 */
+	@After
+	public final void releaseTestServices() {
+		if (executioners != null) {
+			HarnessExecutors.release(executioners);
+			executioners = null;
+		}
+	}
+
+	/**
+	 * override to run thread safety users on the executor used in production.
+	 * used when the <code>executor.strategy</code> parameter is
+	 * <code>PROVIDED</code>. the harness does not shut this executor down.
+	 * 
+	 * @return
+	 */
+	protected ExecutorService getProductionExecutor() {
+		return null;
+	}
+
+	/**
+	 * override to start a server for the worker jvms to load when the
+	 * <code>worker.processes</code> parameter is set. it runs in this jvm for
+	 * the whole thread safety test and is closed after it. the components
+	 * the workers get from <code>getComponentUnderTest</code> must know how
+	 * to reach it on this machine.
+	 *
+	 * @return the server, or <code>null</code> for none
+	 * @throws Exception
+	 */
+	protected Closeable startLocalServer() throws Exception {
+		return null;
+	}
+
+	/**
+	 * select the executor for the thread safety test based on the
+	 * <code>executor.strategy</code> parameter. an executor created by the
+	 * harness is checked out and has to be released after the test.
+	 * 
+	 * @param params
+	 * @return
+	 */
+	private ExecutorService getThreadSafetyExecutor(final Map<String, Object> params) {
+		final Object strategy = params.get(EXECUTOR_STRATEGY);
+		if (strategy == null) {
+			return executioners;
+		}
+		final ExecutorStrategy selected = strategy instanceof ExecutorStrategy ? (ExecutorStrategy) strategy
+				: ExecutorStrategy.valueOf(strategy.toString().trim().toUpperCase());
+		if (selected == ExecutorStrategy.PROVIDED) {
+			final ExecutorService executor = getProductionExecutor();
+			org.junit.Assert.assertNotNull(String.format(MUST_PROVIDE_EXECUTOR,
+					getClass().getSimpleName()), executor);
+			return executor;
+		}
+		return HarnessExecutors.checkout(selected,
+				(int) getNumber(params, EXECUTOR_QUEUE_SIZE, 2 * Runtime.getRuntime().availableProcessors()));
 	}
 
 	/*
@@ -229,6 +667,29 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 	 * Accessors
 	 */
 
+	/**
+	 * off-heap memory for <code>generateTestData</code> to write records into
+	 * instead of allocating objects, so that the test data does not keep the
+	 * garbage collector busy while the component is measured. the arena is
+	 * freed at the end of every phase, so records can't be carried over from
+	 * one phase to the next.
+	 * 
+	 * @return the arena of the current phase
+	 */
+	protected final DataArena getDataArena() {
+		DataArena current = arena;
+		if (current == null) {
+			synchronized (this) {
+				current = arena;
+				if (current == null) {
+					current = new DataArena();
+					arena = current;
+				}
+			}
+		}
+		return current;
+	}
+
 	/**
 	 * indicates whether the current test execution is a performance test
 	 * 
@@ -296,14 +757,14 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 			throws Exception;
 
 	/**
-	 * check for bottle necks in component under test
+	 * check for bottle necks in component under test. the result message is
+	 * formatted and written by the event log, off the measured thread.
 	 */
-	protected final String verifyPerformance(final Map<String, Object> params, final C componentUnderTest) throws Exception {
+	protected final void verifyPerformance(final Map<String, Object> params, final C componentUnderTest) throws Exception {
 		// see if performance testing has been disabled
-		String message = "performance testing has been disabled.";
 		if (disabled(params.get(DISABLE_PERFORMANCE_TEST))) {
-			System.out.println(message);
-			return message;
+			System.out.println("performance testing has been disabled.");
+			return;
 		}
 
 		// check the parameters map
@@ -321,19 +782,41 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 				((String) result).indexOf("%.2f") < 0);
 
 		// run the performance test
+		final HarnessMetrics metrics = HarnessMetrics.get();
 		final long start = System.currentTimeMillis();
 		final AtomicInteger counter = new AtomicInteger(0);
-		int n = random.nextInt( ((Number)params.get( NUM_ITEMS )).intValue() );
-		for( int i=0;i<n;i++ ) {
-			verifyFunctionality(params, componentUnderTest, generateTestData(params), counter);
+		// trials are compared with each other, so each one makes the same number of calls
+		final int items = ((Number)params.get( NUM_ITEMS )).intValue();
+		final int n = getNumber(params, TRIALS, 1) > 1 ? items : random.nextInt( items );
+		final Long deadline = (Long) params.get( SOAK_DEADLINE );
+		final Workload.Op role = params.get(OPERATION_ROLE) == null ? null
+				: workload.get((String) params.get(OPERATION_ROLE));
+		// read a snapshot once rather than on every call
+		final D snapshot = enabled(params.get(SNAPSHOT_TEST_DATA)) ? testData(params) : null;
+		metrics.userStarted();
+		try {
+			for( int i=0;(deadline == null ? i<n : System.nanoTime() < deadline) && !metrics.isStopRequested();i++ ) {
+				final D testData = snapshot != null ? snapshot : testData(params);
+				final Workload.Op operation = workload == null ? null
+						: role != null ? role : workload.pick();
+				final long operationStart = System.nanoTime();
+				if (operation == null) {
+					verifyFunctionality(params, componentUnderTest, testData, counter);
+				} else {
+					operation.invoke(this, params, componentUnderTest, testData, counter);
+				}
+				final long operationEnd = System.nanoTime();
+				metrics.record(operationStart, operationEnd);
+				if (operation != null) {
+					operation.record(operationEnd - operationStart);
+				}
+			}
+		} finally {
+			metrics.userFinished();
 		}
 		setCountsForUser(params, counter.get());
 		final float time = (System.currentTimeMillis() - start) / 1000f;
-		message = String.format((String) result,
-				params.get(COUNT_FOR_THIS_USER), time);
-		System.out.println(message);
-
-		return message;
+		EventLog.log((String) result, params.get(COUNT_FOR_THIS_USER), time);
 	}
 
 	/**
@@ -357,6 +840,57 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 		}
 	}
 
+	/**
+	 * get the test data, from its snapshot if snapshots are enabled.
+	 * 
+	 * @param params
+	 * @return
+	 * @throws Exception
+	 */
+	private D testData(final Map<String, Object> params) throws Exception {
+		if (!enabled(params.get(SNAPSHOT_TEST_DATA))) {
+			return generateTestData(params);
+		}
+		final Map<String, Object> key;
+		if (params.get(SNAPSHOT_KEY) != null) {
+			key = new HashMap<String, Object>();
+			key.put(SNAPSHOT_KEY, params.get(SNAPSHOT_KEY));
+		} else {
+			key = withoutRunSpecific(params);
+			key.remove(RESULT_MESSAGE);
+		}
+		return SnapshotStore.load(getClass(), key, new Callable<D>() {
+			@Override
+			public D call() throws Exception {
+				return generateTestData(params);
+			}
+		});
+	}
+
+	/**
+	 * @param params
+	 * @return a copy of the parameters without the ones that change from user
+	 *         to user or from run to run
+	 */
+	private static Map<String, Object> withoutRunSpecific(final Map<String, Object> params) {
+		final Map<String, Object> copy = new HashMap<String, Object>(params);
+		for (final String name : new String[] { USER_ID, COUNT_FOR_THIS_USER,
+				NUMBER_OF_SIMULTANEOUS_USERS, SOAK_DEADLINE, OPERATION_ROLE }) {
+			copy.remove(name);
+		}
+		return copy;
+	}
+
+	/**
+	 * helper method to handle parsing value of boolean 'measureXXX' fields.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private final boolean enabled(final Object value) {
+		return disabled(value);
+	}
+
 	/**
 	 * verify that the component is thread safe
 	 */
@@ -403,6 +937,11 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 		final int n = ((Number) num).intValue();
 		final ArrayList<Callable<String>> users = new ArrayList<Callable<String>>(
 				n);
+		final long soakSeconds = (long) getNumber(params, SOAK_DURATION, 0);
+		final Long deadline = soakSeconds > 0 ? System.nanoTime() + soakSeconds * 1000000000L : null;
+		final Object mixed = params.get(WORKLOAD_MIX);
+		final WorkloadMix mix = mixed == null ? WorkloadMix.MIXED : mixed instanceof WorkloadMix ? (WorkloadMix) mixed
+				: WorkloadMix.valueOf(mixed.toString().trim().toUpperCase());
 		final long start = System.currentTimeMillis();
 		for (int i = 0; i < n; i++) {
 			final int userNum = i;
@@ -415,26 +954,87 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 					// add user Id
 					params.put(USER_ID, String.format("user-%d", userNum));
 					params.put(NUMBER_OF_SIMULTANEOUS_USERS, num);
+					if ((workload != null) && (mix == WorkloadMix.ROLES)) {
+						params.put(OPERATION_ROLE, workload.assign(userNum, n).name);
+					}
+					if (deadline != null) {
+						params.put(SOAK_DEADLINE, deadline);
+					}
 					// run the performance test for this user in parallel to
 					// other users
-					return verifyPerformance(params, getComponentUnderTest());
+					verifyPerformance(params, getComponentUnderTest());
+					return null;
 				}
 			});
 		}
 
-		for (final Future<String> user : executor.invokeAll(users)) {
+		SoakMonitor soak = null;
+		if (deadline != null) {
+			soak = new SoakMonitor((long) (1000 * getNumber(params, SOAK_SNAPSHOT_INTERVAL, 10)));
+			soak.start();
+		}
+		// watch the users for deadlocks, stalls and collapsing throughput
+		final Watchdog watchdog = new Watchdog(
+				(long) getNumber(params, OPERATION_TIMEOUT, 0), OPERATION_TIMEOUT,
+				(long) getNumber(params, PHASE_TIMEOUT, 0), PHASE_TIMEOUT,
+				getNumber(params, THROUGHPUT_COLLAPSE, -1));
+		HarnessMetrics.get().setWatchdog(watchdog);
+		final List<Future<String>> running = new ArrayList<Future<String>>(n);
+		int rejected = 0;
+		for (final Callable<String> user : users) {
 			try {
-				user.get();
-			} catch (final Throwable e) {
-				fail( e.getMessage(), e );
+				running.add(executor.submit(user));
+			} catch (final RejectedExecutionException e) {
+				rejected++;
 			}
 		}
+		EventLog.log(HarnessExecutors.STATISTICS, executor.getClass().getSimpleName(),
+				HarnessExecutors.getQueueDepth(executor),
+				HarnessExecutors.getActiveCount(executor), rejected);
+		watchdog.start(running);
+		List<SoakMonitor.Snapshot> snapshots = null;
+		try {
+			for (final Future<String> user : running) {
+				try {
+					watchdog.await(user);
+				} catch (final Throwable e) {
+					if (watchdog.getFailure() == null) {
+						fail( e.getMessage(), e );
+					}
+				}
+				if (watchdog.getFailure() != null) {
+					fail(watchdog.getFailure());
+				}
+			}
+		} finally {
+			HarnessMetrics.get().setWatchdog(null);
+			watchdog.stop();
+			// a soak monitor left running would force a collection every interval
+			if (soak != null) {
+				snapshots = soak.stop();
+			}
+		}
+		if (snapshots != null) {
+			for (final SoakMonitor.Snapshot snapshot : snapshots) {
+				EventLog.log("%s", snapshot);
+			}
+			final String failure = SoakMonitor.assess(snapshots,
+					getNumber(params, SOAK_MAX_HEAP_GROWTH, 0.25),
+					getNumber(params, SOAK_MAX_THROUGHPUT_DROP, 0.25));
+			if (failure != null) {
+				fail(failure);
+			}
+		}
+		// a phase that passed with fewer users would hide the rejections
+		if (rejected > 0) {
+			fail(String.format(USERS_REJECTED, rejected, n, executor.getClass().getSimpleName()));
+		}
 
 		// tests are done.
 		final float time = (System.currentTimeMillis() - start) / 1000f;
 		message = String.format((String) result, n, SHARED_COUNTER.intValue(),
 				time);
-		System.out.println(message);
+		EventLog.log(message);
 
 		return message;
 	}
@@ -457,9 +1057,36 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 
 		// run the functional test
 		Map<String, Object> params = getFunctionalTestingParameters();
+		workload = Workload.of(getClass());
+
+		// measure the first use of the component before anything warms it up
+		if (enabled(params.get(MEASURE_COLD_START))) {
+			final int maxCalls = (int) getNumber(params, COLD_START_MAX_CALLS, 1000);
+			if (enabled(params.get(COLD_START_IN_FRESH_JVM))) {
+				final String failure = ColdStart.inFreshJvm(getClass(), maxCalls);
+				assertTrue(failure, failure == null);
+			} else {
+				System.out.println(ColdStart.measure(this, maxCalls));
+			}
+			System.out.println();
+		}
+
+		// reuse the last result if nothing changed since it was measured
+		final ResultCache cache = getResultCache(params);
+		final int fullRunEvery = (int) getNumber(params, FULL_RUN_EVERY, 10);
+		final boolean reuse = (cache != null)
+				&& cache.isReusable(getNumber(params, RESULT_MAX_AGE, 24), fullRunEvery);
+		if (reuse && (params.get(ALWAYS_RUN_FUNCTIONAL) != null)
+				&& !enabled(params.get(ALWAYS_RUN_FUNCTIONAL))) {
+			System.out.println(cache.reuse(getClass().getSimpleName(), fullRunEvery));
+			System.out.println();
+			return;
+		}
+
 		try {
-			// initialize the counter to 0
+			// initialize the counter to 0 and check every assertion
 			resetAssertionCounter();
+			junitWrapper.disableSampling();
 
 			// reset test counter to 0
 			SHARED_COUNTER.set(0);
@@ -469,13 +1096,18 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 
 			// get value of global defensive programming assertion counter
 			final long before = getGlobalAssertionCount();
+			final Map<String, Long> sitesBefore = getAssertionSiteCounts();
 
 			// run the test
+			HarnessMetrics.get().startPhase(getClass().getSimpleName(), "functional");
 			System.out.println(String.format(STARTING, "functional", getClass()
 					.getSimpleName()));
 			final AtomicInteger counter = new AtomicInteger(0);
-			verifyFunctionality(params, getComponentUnderTest(),
-					generateTestData(params), counter);
+			final C componentUnderTest = getComponentUnderTest();
+			final D testData = testData(params);
+			verifyFootprint(params, componentUnderTest, testData);
+			verifyFunctionality(params, componentUnderTest, testData, counter);
+			EventLog.flush();
 
 			// set the counts for this user
 			setCountsForUser(params, counter.get());
@@ -486,7 +1118,10 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 					.println(String
 							.format("%d runtime defensive programming assertions were evaluated.",
 									getGlobalAssertionCount() - before));
+			reportAssertionSites("functional", sitesBefore);
 		} finally {
+			EventLog.flush();
+			freeDataArena("functional");
 			System.out.println(String.format(ASSERTION_COUNT,
 					getAssertionCount(), "functional"));
 			System.out.println();
@@ -495,22 +1130,60 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 		// reset if needed
 		reset();
 
+		if (reuse) {
+			System.out.println(cache.reuse(getClass().getSimpleName(), fullRunEvery));
+			System.out.println();
+			return;
+		}
+
 		// run the performance test
 		params = getPerformanceTestingParameters();
 		try {
-			// initialize the counter to 0
+			// initialize the counter to 0 and sample assertions if requested
 			resetAssertionCounter();
+			configureAssertionSampling(params);
 
 			// reset test counter to 0
 			SHARED_COUNTER.set(0);
 
 			// get value of global defensive programming assertion counter
 			final long before = getGlobalAssertionCount();
+			final Map<String, Long> sitesBefore = getAssertionSiteCounts();
 
 			// run the test
+			HarnessMetrics.get().startPhase(getClass().getSimpleName(), "performance");
+			if (workload != null) {
+				workload.reset();
+			}
 			System.out.println(String.format(STARTING, "performance",
 					getClass().getSimpleName()));
-			verifyPerformance(params, getComponentUnderTest());
+			final int trials = Math.max(1, (int) getNumber(params, TRIALS, 1));
+			final double[] throughput = new double[trials];
+			final StackSampler profiler = startProfiler(params);
+			final long start = System.nanoTime();
+			for (int trial = 0; trial < trials; trial++) {
+				if (trial > 0) {
+					reset();
+				}
+				final long trialStart = System.nanoTime();
+				verifyPerformance(params, getComponentUnderTest());
+				throughput[trial] = getNumber(params, COUNT_FOR_THIS_USER, 0)
+						* 1e9d / (System.nanoTime() - trialStart);
+			}
+			stopProfiler(profiler, "performance");
+			EventLog.flush();
+			reportCpuUsage("performance", System.nanoTime() - start, 1);
+			if (workload != null) {
+				System.out.println(workload.report(System.nanoTime() - start));
+			}
+			reportTrials("performance", throughput, params);
+			singleUserThroughput = Statistics.mean(throughput);
+			verifyBudget("performance", params, throughput, 1);
+			if (cache != null) {
+				cache.put("performance.calls.per.second", singleUserThroughput);
+				cache.put("performance.p99.millis", HarnessMetrics.get()
+						.getPhaseLatencies().getValueAtPercentile(0.99d) / 1e6d);
+			}
 
 			// report on the number of new defensive programming assertions that
 			// were evaluated while running tests
@@ -518,32 +1191,118 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 					.println(String
 							.format("%d runtime defensive programming assertions were evaluated.",
 									getGlobalAssertionCount() - before));
+			reportAssertionSites("performance", sitesBefore);
 
 		} finally {
+			EventLog.flush();
+			freeDataArena("performance");
 			System.out.println(String.format(ASSERTION_COUNT,
 					getAssertionCount(), "performance"));
+			System.out.println(String.format(SKIPPED_ASSERTION_COUNT,
+					junitWrapper.getSkippedAssertionCount(), "performance"));
+			junitWrapper.disableSampling();
 			System.out.println();
 		}
 
+		// compare with the alternative implementation if there is one
+		final C alternative = getAlternativeComponentUnderTest();
+		if (alternative != null) {
+			reset();
+			try {
+				resetAssertionCounter();
+				HarnessMetrics.get().startPhase(getClass().getSimpleName(), "comparison");
+				System.out.println(String.format(STARTING, "comparison",
+						getClass().getSimpleName()));
+				verifyComparison(params, getComponentUnderTest(), alternative);
+			} finally {
+				freeDataArena("comparison");
+				System.out.println(String.format(ASSERTION_COUNT,
+						getAssertionCount(), "comparison"));
+				System.out.println();
+			}
+		}
+
 		// reset if needed
 		reset();
 
 		// run the thread safety test
 		params = getThreadSafetyTestingParameters();
+		ExecutorService executor = null;
 		try {
-			// initialize the counter to 0
+			// initialize the counter to 0 and sample assertions if requested
 			resetAssertionCounter();
+			configureAssertionSampling(params);
 
 			// reset test counter to 0
 			SHARED_COUNTER.set(0);
 
 			// get value of global defensive programming assertion counter
 			final long before = getGlobalAssertionCount();
+			final Map<String, Long> sitesBefore = getAssertionSiteCounts();
 
 			// run the test
+			HarnessMetrics.get().startPhase(getClass().getSimpleName(), "thread safety");
+			if (workload != null) {
+				workload.reset();
+			}
 			System.out.println(String.format(STARTING, "thread safety",
 					getClass().getSimpleName()));
-			verifyThreadSafety(params, generateTestData(params), executioners);
+			final D testData = testData(params);
+			executor = getThreadSafetyExecutor(params);
+			final int trials = Math.max(1, (int) getNumber(params, TRIALS, 1));
+			final double[] throughput = new double[trials];
+			final StackSampler profiler = startProfiler(params);
+			IntervalRecorder intervals = null;
+			if (getNumber(params, INTERVAL_MILLIS, 0) > 0) {
+				intervals = new IntervalRecorder((long) getNumber(params, INTERVAL_MILLIS, 0));
+				HarnessMetrics.get().setIntervalRecorder(intervals);
+				intervals.start();
+			}
+			final int workers = (int) getNumber(params, WORKER_PROCESSES, 0);
+			final Closeable server = workers > 0 ? startLocalServer() : null;
+			final long start = System.nanoTime();
+			try {
+				for (int trial = 0; trial < trials; trial++) {
+					if (trial > 0) {
+						reset();
+						SHARED_COUNTER.set(0);
+					}
+					final long trialStart = System.nanoTime();
+					if (workers > 0) {
+						throughput[trial] = runLoadWorkers(params, workers);
+					} else {
+						verifyThreadSafety(params, testData, executor);
+						throughput[trial] = SHARED_COUNTER.get() * 1e9d
+								/ (System.nanoTime() - trialStart);
+					}
+				}
+			} finally {
+				if (server != null) {
+					server.close();
+				}
+			}
+			if (intervals != null) {
+				HarnessMetrics.get().setIntervalRecorder(null);
+				intervals.stop();
+			}
+			stopProfiler(profiler, "thread safety");
+			EventLog.flush();
+			reportCpuUsage("thread safety", System.nanoTime() - start,
+					(int) getNumber(params, NUMBER_OF_SIMULTANEOUS_USERS, 1));
+			if ((workload != null) && (workers == 0)) {
+				System.out.println(workload.report(System.nanoTime() - start));
+			}
+			if (intervals != null) {
+				System.out.println(intervals.write(getClass().getSimpleName(), "thread safety"));
+			}
+			reportTrials("thread safety", throughput, params);
+			verifyBudget("thread safety", params, throughput,
+					(int) getNumber(params, NUMBER_OF_SIMULTANEOUS_USERS, 1));
+			if (cache != null) {
+				cache.put("thread.safety.calls.per.second", Statistics.mean(throughput));
+				cache.put("thread.safety.p99.millis", HarnessMetrics.get()
+						.getPhaseLatencies().getValueAtPercentile(0.99d) / 1e6d);
+			}
 
 			// report on the number of new defensive programming assertions that
 			// were evaluated while running tests
@@ -551,13 +1310,581 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 					.println(String
 							.format("%d runtime defensive programming assertions were evaluated.",
 									getGlobalAssertionCount() - before));
+			reportAssertionSites("thread safety", sitesBefore);
 
 		} finally {
+			if ((executor != null) && (executor != executioners)) {
+				HarnessExecutors.release(executor);
+			}
+			EventLog.flush();
+			freeDataArena("thread safety");
 			System.out.println(String.format(ASSERTION_COUNT,
 					getAssertionCount(), "thread safety"));
+			System.out.println(String.format(SKIPPED_ASSERTION_COUNT,
+					junitWrapper.getSkippedAssertionCount(), "thread safety"));
+			junitWrapper.disableSampling();
+			System.out.println();
+		}
+
+		// run the stress test if the fixture declares actors
+		final List<Method> actors = StressRunner.getActors(getClass());
+		if (!actors.isEmpty() && (getNumber(params, STRESS_ROUNDS, 1) > 0)) {
+			reset();
+			try {
+				resetAssertionCounter();
+				HarnessMetrics.get().startPhase(getClass().getSimpleName(), "stress");
+				System.out.println(String.format(STARTING, "stress", getClass()
+						.getSimpleName()));
+				verifyStress(params, actors);
+			} finally {
+				freeDataArena("stress");
+				System.out.println(String.format(ASSERTION_COUNT,
+						getAssertionCount(), "stress"));
+				System.out.println();
+			}
+		}
+
+		// every phase passed, keep the result
+		if (cache != null) {
+			System.out.println(cache.save(getClass().getSimpleName()));
 			System.out.println();
 		}
+	}
+
+	/**
+	 * @param params functional testing parameters
+	 * @return the result cache for this fixture, or <code>null</code> if
+	 *         results are not cached
+	 * @throws Exception
+	 */
+	private ResultCache getResultCache(final Map<String, Object> params) throws Exception {
+		if (!enabled(params.get(CACHE_RESULTS)) && !Boolean.getBoolean(ResultCache.RESULT_CACHE)) {
+			return null;
+		}
+		final Map<String, Object> functional = withoutRunSpecific(params);
+		final Map<String, Object> performance = withoutRunSpecific(getPerformanceTestingParameters());
+		final Map<String, Object> threadSafety = withoutRunSpecific(getThreadSafetyTestingParameters());
+		final Map.Entry<String, ?> unsupported = ResultCache.findUnsupported(functional, performance, threadSafety);
+		if (unsupported != null) {
+			System.out.println(String.format(ResultCache.NOT_CACHED, getClass().getSimpleName(),
+					unsupported.getKey(), unsupported.getValue().getClass().getName()));
+			return null;
+		}
+		final Class<?> component = getComponentUnderTest().getClass();
+		final Class<?> unreadable = ResultCache.findUnreadable(getClass(), component);
+		if (unreadable != null) {
+			System.out.println(String.format(ResultCache.NO_BYTECODE, getClass().getSimpleName(), unreadable.getName()));
+			return null;
+		}
+		return new ResultCache(getClass(), component, functional, performance, threadSafety);
+	}
+
+	/**
+	 * report the retained heap size of the component under test and its test
+	 * data, and check them against the footprint limits in the parameter map.
+	 * 
+	 * @param params
+	 * @param componentUnderTest
+	 * @param testData
+	 * @throws Exception
+	 */
+	private void verifyFootprint(final Map<String, Object> params,
+			final C componentUnderTest, final D testData) throws Exception {
+		if (!enabled(params.get(MEASURE_FOOTPRINT))
+				&& (params.get(MAX_COMPONENT_FOOTPRINT) == null)
+				&& (params.get(MAX_TEST_DATA_FOOTPRINT) == null)) {
+			return;
+		}
+		final MemoryFootprint.Footprint component = MemoryFootprint.measure(componentUnderTest,
+				new Callable<C>() {
+					@Override
+					public C call() throws Exception {
+						return getComponentUnderTest();
+					}
+				});
+		final MemoryFootprint.Footprint data = MemoryFootprint.measure(testData, new Callable<D>() {
+			@Override
+			public D call() throws Exception {
+				return generateTestData(params);
+			}
+		});
+		System.out.println(String.format(FOOTPRINT, "component under test", component.bytes, component.method));
+		System.out.println(String.format(FOOTPRINT, "test data item", data.bytes, data.method));
+		checkFootprint(params, MAX_COMPONENT_FOOTPRINT, "component under test", component.bytes);
+		checkFootprint(params, MAX_TEST_DATA_FOOTPRINT, "test data item", data.bytes);
+	}
+
+	/**
+	 * @param params
+	 * @param limit name of the limit in the parameter map
+	 * @param what
+	 * @param bytes
+	 */
+	private void checkFootprint(final Map<String, Object> params,
+			final String limit, final String what, final long bytes) {
+		final long max = (long) getNumber(params, limit, -1);
+		if (max >= 0) {
+			assertTrue(String.format(FOOTPRINT_TOO_LARGE, what, bytes, max, limit), bytes <= max);
+		}
+	}
+
+	/**
+	 * run the users of the thread safety test in worker jvms, add their
+	 * latencies and counters to the phase and report them.
+	 *
+	 * @param params
+	 * @param workers number of worker jvms
+	 * @return calls per second over all the workers
+	 * @throws Exception
+	 */
+	private double runLoadWorkers(final Map<String, Object> params,
+			final int workers) throws Exception {
+		final List<String> jvmArgs = new ArrayList<String>();
+		final Object args = params.get(WORKER_JVM_ARGS);
+		if ((args != null) && !isEmpty(args.toString().trim())) {
+			Collections.addAll(jvmArgs, args.toString().trim().split("\\s+"));
+		}
+		final LoadCoordinator.Result result = LoadCoordinator.run(getClass(), workers,
+				(int) getNumber(params, NUMBER_OF_SIMULTANEOUS_USERS, 1), jvmArgs,
+				(long) getNumber(params, PHASE_TIMEOUT, 0));
+		HarnessMetrics.get().merge(result.latencies, result.cpuNanos, result.allocatedBytes);
+		SHARED_COUNTER.set((int) result.calls);
+		System.out.println(result.report());
+		if (!result.failures.isEmpty()) {
+			fail(String.join(String.format("%n"), result.failures));
+		}
+		return result.getThroughput();
+	}
+
+	/**
+	 * prepare a share of the users of the thread safety test in a worker jvm,
+	 * so that they only have to be started when the coordinator says so.
+	 *
+	 * @param users
+	 * @return the prepared run
+	 * @throws Exception
+	 */
+	final Callable<String> prepareLoadWorker(final int users) throws Exception {
+		final Map<String, Object> params = getThreadSafetyTestingParameters();
+		params.remove(WORKER_PROCESSES);
+		params.put(NUMBER_OF_SIMULTANEOUS_USERS, users);
+		workload = Workload.of(getClass());
+		final D testData = testData(params);
+		final ExecutorService executor = getThreadSafetyExecutor(params);
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				SHARED_COUNTER.set(0);
+				HarnessMetrics.get().startPhase(BaseTestCase.this.getClass().getSimpleName(),
+						"thread safety");
+				return verifyThreadSafety(params, testData, executor);
+			}
+		};
+	}
+
+	/**
+	 * free the data arena of the phase, if the fixture used one. users that
+	 * were stopped but have not finished yet may still read it, then it is
+	 * left to the collector.
+	 * 
+	 * @param phase
+	 */
+	final void freeDataArena(final String phase) {
+		final DataArena used;
+		synchronized (this) {
+			used = arena;
+			arena = null;
+		}
+		if (used != null) {
+			final int running = HarnessMetrics.get().getInFlightUsers();
+			if (running > 0) {
+				System.out.println(String.format(DataArena.NOT_FREED,
+						used.getReservedBytes(), phase, running));
+			} else {
+				final long bytes = used.getReservedBytes();
+				final int slabs = used.getSlabCount();
+				used.close();
+				System.out.println(String.format(DataArena.FREED, bytes, slabs, phase));
+			}
+		}
+	}
+
+	/**
+	 * report cpu time against wall time for the phase, so that a slow thread
+	 * safety run can be told apart as cpu bound or waiting.
+	 * 
+	 * @param phase
+	 * @param wallNanos
+	 * @param users
+	 */
+	private void reportCpuUsage(final String phase, final long wallNanos,
+			final int users) {
+		final HarnessMetrics metrics = HarnessMetrics.get();
+		final int cores = Runtime.getRuntime().availableProcessors();
+		final double wall = wallNanos / 1e9d;
+		final double cpu = metrics.getCpuTimeMillis() / 1000d;
+		System.out.println(String.format(CPU_USAGE, phase, cpu,
+				metrics.getUserTimeMillis() / 1000d, wall,
+				wall > 0 ? cpu / wall : 0d, cores,
+				users > cores ? String.format(OVERSUBSCRIBED, users) : ""));
+	}
+
+	/**
+	 * start sampling the stacks of the users if the parameter map asks for
+	 * it.
+	 * 
+	 * @param params
+	 * @return the profiler, or <code>null</code> if the phase is not profiled
+	 */
+	private StackSampler startProfiler(final Map<String, Object> params) {
+		if (!enabled(params.get(PROFILE))) {
+			return null;
+		}
+		final StackSampler profiler = new StackSampler(
+				(long) getNumber(params, PROFILE_INTERVAL_MILLIS, 10),
+				getNumber(params, PROFILE_MAX_OVERHEAD, 0.02));
+		HarnessMetrics.get().setProfiler(profiler);
+		profiler.start();
+		return profiler;
+	}
+
+	/**
+	 * stop the profiler, write its stacks and report its overhead.
+	 * 
+	 * @param profiler may be <code>null</code>
+	 * @param phase
+	 * @throws Exception
+	 */
+	private void stopProfiler(final StackSampler profiler, final String phase)
+			throws Exception {
+		if (profiler == null) {
+			return;
+		}
+		HarnessMetrics.get().setProfiler(null);
+		profiler.stop();
+		EventLog.log("%s", profiler.write(getClass().getSimpleName(), phase));
+	}
+
+	/**
+	 * rank the runtime defensive programming assertion sites by how often
+	 * they were evaluated during the phase. lazy asserts are always
+	 * attributed, boolean ones only when their call sites are sampled.
+	 * 
+	 * @param phase
+	 * @param before site counts when the phase started
+	 * @throws Exception
+	 */
+	private void reportAssertionSites(final String phase, final Map<String, Long> before)
+			throws Exception {
+		final List<Map.Entry<String, Long>> hottest = new ArrayList<Map.Entry<String, Long>>();
+		for (final Map.Entry<String, Long> site : getAssertionSiteCounts().entrySet()) {
+			final Long previous = before.get(site.getKey());
+			final long count = site.getValue() - (previous == null ? 0 : previous);
+			if (count > 0) {
+				hottest.add(new AbstractMap.SimpleEntry<String, Long>(site.getKey(), count));
+			}
+		}
+		if (hottest.isEmpty()) {
+			return;
+		}
+		Collections.sort(hottest, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(final Map.Entry<String, Long> a, final Map.Entry<String, Long> b) {
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+		System.out.println(String.format(HOTTEST_SITES, phase));
+		for (final Map.Entry<String, Long> site : hottest.subList(0, Math.min(HOTTEST_SITE_COUNT, hottest.size()))) {
+			System.out.println(String.format(SITE, site.getValue(), site.getKey()));
+		}
+		if (Integer.getInteger(assertions.Assert.SITE_SAMPLE_INTERVAL, 0) <= 0) {
+			System.out.println(String.format(UNSAMPLED_SITES, assertions.Assert.SITE_SAMPLE_INTERVAL));
+		}
+	}
+
+	/**
+	 * read the assertion sampling settings from the parameter map.
+	 * 
+	 * @param params
+	 */
+	private void configureAssertionSampling(final Map<String, Object> params) {
+		junitWrapper.setSampling(
+				(int) getNumber(params, ASSERTION_SAMPLE_INTERVAL, 1),
+				getNumber(params, ASSERTION_SAMPLE_RATE, 1d));
+	}
+
+	/**
+	 * helper method to read a numeric setting from the parameter map.
+	 * 
+	 * @param params
+	 * @param name
+	 * @param defaultValue
+	 * @return the value, or the default value if the setting is missing
+	 */
+	private static double getNumber(final Map<String, Object> params,
+			final String name, final double defaultValue) {
+		final Object value = params.get(name);
+		if (value == null) {
+			return defaultValue;
+		} else if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		} else {
+			return Double.parseDouble(value.toString().trim());
+		}
+	}
+
+	/**
+	 * summarize the throughput of repeated trials, marking outliers and
+	 * warning when the trials vary too much.
+	 * 
+	 * @param phase
+	 * @param throughput
+	 * @param params
+	 */
+	private void reportTrials(final String phase, final double[] throughput,
+			final Map<String, Object> params) {
+		if (throughput.length < 2) {
+			return;
+		}
+		final boolean discard = enabled(params.get(DISCARD_OUTLIERS));
+		final boolean[] outliers = Statistics.outliers(throughput);
+		final List<Double> kept = new ArrayList<Double>();
+		for (int i = 0; i < throughput.length; i++) {
+			System.out.println(String.format(TRIAL, i + 1, phase, throughput[i],
+					outliers[i] ? String.format(OUTLIER, discard ? ", discarded" : "") : ""));
+			if (!outliers[i] || !discard) {
+				kept.add(throughput[i]);
+			}
+		}
+		final double[] values = new double[kept.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = kept.get(i);
+		}
+		final double mean = Statistics.mean(values);
+		final double half = Statistics.confidenceHalfWidth(values, CONFIDENCE);
+		final double variation = Statistics.coefficientOfVariation(values);
+		System.out.println(String.format(TRIALS_SUMMARY, values.length, phase, mean,
+				Statistics.standardDeviation(values), 100 * CONFIDENCE, mean - half,
+				mean + half, variation));
+		final double max = getNumber(params, MAX_VARIATION, 0.1);
+		if (!(variation <= max)) {
+			System.out.println(String.format(TOO_NOISY, phase, variation, max));
+		}
+	}
+
+	/**
+	 * check the phase against the performance budget of the fixture, failing
+	 * with every budget it exceeded.
+	 * 
+	 * @param phase
+	 * @param params
+	 * @param throughput calls per second of each trial
+	 * @param users
+	 */
+	private void verifyBudget(final String phase, final Map<String, Object> params,
+			final double[] throughput, final int users) {
+		final HarnessMetrics metrics = HarnessMetrics.get();
+		final PerformanceBudget declared = getClass().getAnnotation(PerformanceBudget.class);
+		final double maxP99 = getNumber(params, BUDGET_MAX_P99_MILLIS,
+				declared == null ? -1 : declared.maxP99Millis());
+		final double minOps = getNumber(params, BUDGET_MIN_OPS_PER_SECOND,
+				declared == null ? -1 : declared.minOpsPerSecond());
+		final long maxBytes = (long) getNumber(params, BUDGET_MAX_BYTES_PER_OPERATION,
+				declared == null ? -1 : declared.maxBytesPerOperation());
+		final double minScaling = getNumber(params, BUDGET_MIN_SCALING_EFFICIENCY,
+				declared == null ? -1 : declared.minScalingEfficiency());
+		final long calls = metrics.getCompletedOperations();
+		if ((calls == 0) || ((maxP99 < 0) && (minOps < 0) && (maxBytes < 0) && (minScaling < 0))) {
+			return;
+		}
 
+		final boolean calibrated = params.get(CALIBRATE_BUDGETS) == null
+				|| enabled(params.get(CALIBRATE_BUDGETS));
+		final double factor = calibrated ? Calibration.factor() : 1d;
+		final String calibration = !calibrated ? NOT_CALIBRATED
+				: Calibration.isPinned() ? String.format(CALIBRATION_PINNED, factor, Calibration.CALIBRATION_FACTOR)
+				: String.format(CALIBRATION_MEASURED, factor, 100 * Calibration.spread());
+		if (calibrated && (Calibration.spread() > Calibration.MAX_SPREAD)) {
+			System.out.println(String.format(Calibration.TOO_NOISY, 100 * Calibration.spread(),
+					100 * Calibration.MAX_SPREAD, Calibration.CALIBRATION_FACTOR));
+		}
+		final List<String> failures = new ArrayList<String>();
+		if (maxP99 >= 0) {
+			final double p99 = metrics.getPhaseLatencies().getValueAtPercentile(0.99d) / 1e6d;
+			if (p99 > maxP99 * factor) {
+				failures.add(String.format(P99_OVER_BUDGET, p99, maxP99 * factor,
+						BUDGET_MAX_P99_MILLIS, maxP99, factor));
+			}
+		}
+		final double ops = Statistics.mean(throughput);
+		if ((minOps >= 0) && (ops < minOps / factor)) {
+			failures.add(String.format(OPS_UNDER_BUDGET, ops, minOps / factor,
+					BUDGET_MIN_OPS_PER_SECOND, minOps, factor));
+		}
+		final long allocated = metrics.getAllocatedBytes();
+		if ((maxBytes >= 0) && (allocated >= 0) && (allocated / calls > maxBytes)) {
+			failures.add(String.format(BYTES_OVER_BUDGET, allocated / calls, maxBytes,
+					BUDGET_MAX_BYTES_PER_OPERATION));
+		}
+		if ((minScaling >= 0) && (users > 1) && (singleUserThroughput > 0)) {
+			final double efficiency = ops / (users * singleUserThroughput);
+			if (efficiency < minScaling) {
+				failures.add(String.format(SCALING_UNDER_BUDGET, efficiency, users,
+						minScaling, BUDGET_MIN_SCALING_EFFICIENCY, ops, singleUserThroughput));
+			}
+		}
+
+		if (!failures.isEmpty()) {
+			final StringBuilder reasons = new StringBuilder();
+			for (final String failure : failures) {
+				reasons.append(reasons.length() == 0 ? "" : "; ").append(failure);
+			}
+			fail(String.format(OVER_BUDGET, phase, calibration, reasons));
+		}
+		System.out.println(String.format(WITHIN_BUDGET, phase, calibration));
+	}
+
+	/**
+	 * override to compare the component under test (A) with another
+	 * implementation (B). when this returns a component, both are run in
+	 * alternating blocks in random order after the performance test, and the
+	 * difference in throughput and latency is reported.
+	 * 
+	 * @return
+	 * @throws Exception
+	 */
+	protected C getAlternativeComponentUnderTest() throws Exception {
+		return null;
+	}
+
+	/**
+	 * run the a/b comparison and report the differences.
+	 * 
+	 * @param params
+	 * @param a
+	 * @param b
+	 * @throws Exception
+	 */
+	private void verifyComparison(final Map<String, Object> params, final C a,
+			final C b) throws Exception {
+		final int blocks = (int) getNumber(params, COMPARISON_BLOCKS, 30);
+		final int size = (int) getNumber(params, COMPARISON_BLOCK_SIZE, 100);
+		final double[] throughput = new double[blocks];
+		final double[] latency = new double[blocks];
+		final double[] throughputA = new double[blocks];
+		final double[] latencyA = new double[blocks];
+		final AtomicInteger counter = new AtomicInteger(0);
+
+		// the first pair warms both components up and is not counted
+		for (int i = -1; i < blocks; i++) {
+			final boolean aFirst = random.nextBoolean();
+			final double[] first = runComparisonBlock(params, aFirst ? a : b, size, counter);
+			final double[] second = runComparisonBlock(params, aFirst ? b : a, size, counter);
+			if (i >= 0) {
+				final double[] blockA = aFirst ? first : second;
+				final double[] blockB = aFirst ? second : first;
+				throughputA[i] = blockA[0];
+				latencyA[i] = blockA[1];
+				throughput[i] = blockB[0] - blockA[0];
+				latency[i] = blockB[1] - blockA[1];
+			}
+		}
+		setCountsForUser(params, counter.get());
+		reportComparison("throughput", throughput, Statistics.mean(throughputA));
+		reportComparison("median latency", latency, Statistics.mean(latencyA));
+	}
+
+	/**
+	 * @param params
+	 * @param component
+	 * @param size
+	 * @param counter
+	 * @return throughput in calls per second and median latency in nanos
+	 * @throws Exception
+	 */
+	private double[] runComparisonBlock(final Map<String, Object> params,
+			final C component, final int size, final AtomicInteger counter)
+			throws Exception {
+		final double[] latencies = new double[size];
+		double total = 0;
+		for (int i = 0; i < size; i++) {
+			final D testData = testData(params);
+			final long start = System.nanoTime();
+			verifyFunctionality(params, component, testData, counter);
+			latencies[i] = System.nanoTime() - start;
+			total += latencies[i];
+		}
+		return new double[] { total > 0 ? size * 1e9d / total : 0d, Statistics.median(latencies) };
+	}
+
+	/**
+	 * @param what
+	 * @param differences paired differences, B minus A
+	 * @param baseline mean of A
+	 */
+	private void reportComparison(final String what, final double[] differences,
+			final double baseline) {
+		final double mean = Statistics.mean(differences);
+		final double half = Statistics.confidenceHalfWidth(differences, CONFIDENCE);
+		final double p = Statistics.wilcoxonSignedRank(differences);
+		System.out.println(String.format(COMPARISON, what, 100 * mean / baseline,
+				100 * CONFIDENCE, 100 * (mean - half) / baseline, 100 * (mean + half) / baseline,
+				p, p < 1 - CONFIDENCE ? SIGNIFICANT : ""));
+	}
+
+	/**
+	 * create the component shared by the actors for one round of the stress
+	 * test. defaults to <code>getComponentUnderTest</code>.
+	 * 
+	 * @return
+	 * @throws Exception
+	 */
+	protected C createStressState() throws Exception {
+		return getComponentUnderTest();
+	}
+
+	/**
+	 * classify an outcome of the stress test. the outcome is the list of values
+	 * returned by the actors in actor name order, for example "[1, 0]".
+	 * everything is acceptable unless this is overridden.
+	 * 
+	 * @param outcome
+	 * @return
+	 */
+	protected Outcome classifyOutcome(final String outcome) {
+		return Outcome.ACCEPTABLE;
+	}
+
+	/**
+	 * run the actors of the fixture against shared components and check the
+	 * outcomes they produce.
+	 * 
+	 * @param params
+	 * @param actors
+	 * @throws Exception
+	 */
+	private void verifyStress(final Map<String, Object> params,
+			final List<Method> actors) throws Exception {
+		final long rounds = (long) getNumber(params, STRESS_ROUNDS, 1000000);
+		final StressRunner<C> runner = new StressRunner<C>(this, actors, (long) getNumber(params, OPERATION_TIMEOUT, 0));
+		final long start = System.nanoTime();
+		final Map<String, Long> histogram = runner.run(rounds);
+		final float time = (System.nanoTime() - start) / 1e9f;
+
+		long total = 0;
+		final List<String> forbidden = new ArrayList<String>();
+		for (final Map.Entry<String, Long> entry : histogram.entrySet()) {
+			final Outcome outcome = classifyOutcome(entry.getKey());
+			System.out.println(String.format(StressRunner.HISTOGRAM, entry.getValue(), outcome, entry.getKey()));
+			if (outcome == Outcome.FORBIDDEN) {
+				forbidden.add(entry.getKey());
+			}
+			total += entry.getValue();
+		}
+		System.out.println(String.format(StressRunner.SUMMARY, total, runner.describe(), time));
+		if (!forbidden.isEmpty()) {
+			fail(String.format(StressRunner.FORBIDDEN, forbidden));
+		}
 	}
 
 	/**
@@ -603,6 +1930,29 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 		junitWrapper.assertTrue(message, condition);
 	}
 
+	/**
+	 * the condition is only evaluated when assertion sampling does not skip
+	 * the assertion, so heavy checks cost nothing when they are skipped.
+	 * 
+	 * @param message
+	 * @param condition
+	 */
+	protected final void assertFalse(final String message,
+			final BooleanSupplier condition) {
+		junitWrapper.assertFalse(message, condition);
+	}
+
+	/**
+	 * the condition is only evaluated when assertion sampling does not skip
+	 * the assertion, so heavy checks cost nothing when they are skipped.
+	 * 
+	 * @param message
+	 * @param condition
+	 */
+	protected final void assertTrue(final String message, final BooleanSupplier condition) {
+		junitWrapper.assertTrue(message, condition);
+	}
+
 	/**
 	 * @param message
 	 * @param object
@@ -712,7 +2062,6 @@ public abstract class BaseTestCase<C, D> implements TestFixture {
 	 */
 	public static final boolean isThreadSafetyTest( Thread thread ) {
 		for( StackTraceElement method : thread.getStackTrace() ) {
-			System.out.println( method.getMethodName() );
 			if( method.getMethodName().contains( "verifyThreadSafety" ) ) {
 				return true;
 			}
@@ -0,0 +1,189 @@
+package test;
+
+import test.utilities.Statistics;
+
+/**
+ * measures how fast this machine is compared to the reference machine the
+ * performance budgets are written for. the factor is the time a fixed cpu and
+ * memory bound workload takes here divided by the time it takes on the
+ * reference machine, so it is above 1 on slower hosts. it is measured once per
+ * jvm, or taken from the <code>test.harness.calibration.factor</code> system
+ * property so that a ci host can pin it.
+ *
+ * the factor is the median of many runs of the workload after it has been
+ * warmed up long enough for the jit to finish with it, and the spread of the
+ * runs is kept with it. a busy or noisy host still measures slow, which
+ * loosens the budgets, and a large spread says so. a ci host should measure
+ * the factor once while it is idle, with <code>java test.Calibration</code>,
+ * and pin it.
+ *
+ * @author patrick
+ *
+ */
+public final class Calibration implements TestFixture {
+
+	/**
+	 * system property with a fixed calibration factor.
+	 */
+	public static final String CALIBRATION_FACTOR = "test.harness.calibration.factor";
+
+	/**
+	 * spread of the runs, from the 25th to the 75th percentile as a fraction
+	 * of the median, above which the factor is too noisy to rely on.
+	 */
+	public static final double MAX_SPREAD = 0.1;
+
+	static final String MEASURED = "calibration workload took %.3f ms (median of %d runs, spread %.1f%%), factor %.2f against the reference of %.3f ms.";
+	static final String TOO_NOISY = "warning: the calibration runs spread by %.1f%%, more than %.1f%%. the factor is not reliable on this host, pin it with '%s'.";
+
+	// median time the workload takes on the reference machine, in nanos,
+	// measured with java test.Calibration on a one core intel xeon virtual
+	// machine running openjdk 17. eleven jvms there gave medians of 18.5 to
+	// 22.6 ms, nine of them within 18.5 to 19.5 ms. changing this rescales
+	// every calibrated budget.
+	private static final long REFERENCE_NANOS = 19000000L;
+
+	// the workload is run for this long before measuring, in nanos, so that
+	// the jit has compiled it at its last tier
+	private static final long WARMUP_NANOS = 1000000000L;
+	private static final int RUNS = 21;
+	private static final int SIZE = 1 << 16;
+
+	// the workload is this many steps of this many iterations
+	private static final int STEPS = 1024;
+	private static final int STEP = 4096;
+
+	private static volatile double factor = Double.NaN;
+	private static volatile double spread = 0;
+
+	// keeps the workload from being optimized away
+	static volatile long sink;
+
+	// hide constructor
+	private Calibration(){}
+
+	/**
+	 * @return time the calibration workload takes here relative to the reference machine
+	 */
+	public static double factor() {
+		if( Double.isNaN( factor ) ) {
+			synchronized( Calibration.class ) {
+				if( Double.isNaN( factor ) ) {
+					final String fixed = System.getProperty( CALIBRATION_FACTOR );
+					if( fixed != null ) {
+						factor = Double.parseDouble( fixed.trim() );
+					} else {
+						final double[] runs = measure();
+						final double median = Statistics.median( runs );
+						spread = spreadOf( runs );
+						factor = median / REFERENCE_NANOS;
+					}
+				}
+			}
+		}
+		return factor;
+	}
+
+	/**
+	 * @return spread of the runs the factor was measured from, from the 25th
+	 *         to the 75th percentile as a fraction of the median, or 0 when
+	 *         the factor is pinned
+	 */
+	public static double spread() {
+		factor();
+		return spread;
+	}
+
+	/**
+	 * @return <code>true</code> if the factor comes from the
+	 *         <code>test.harness.calibration.factor</code> system property
+	 *         rather than a measurement
+	 */
+	public static boolean isPinned() {
+		return System.getProperty( CALIBRATION_FACTOR ) != null;
+	}
+
+	/**
+	 * measure this host and print the factor, the time the workload took and
+	 * the spread of the runs, to pin the factor on a ci host or to derive the
+	 * reference time on a new reference machine.
+	 *
+	 * @param args
+	 */
+	public static void main(final String[] args) {
+		final double[] runs = measure();
+		final double median = Statistics.median( runs );
+		final double spread = spreadOf( runs );
+		System.out.println( String.format( MEASURED, median / 1e6d, runs.length, 100 * spread, median / REFERENCE_NANOS,
+				REFERENCE_NANOS / 1e6d ) );
+		if( spread > MAX_SPREAD ) {
+			System.out.println( String.format( TOO_NOISY, 100 * spread, 100 * MAX_SPREAD, CALIBRATION_FACTOR ) );
+		}
+	}
+
+	/**
+	 * @param runs
+	 * @return 25th to 75th percentile of the runs as a fraction of their median
+	 */
+	private static double spreadOf(final double[] runs) {
+		return (Statistics.quantile( runs, 0.75d ) - Statistics.quantile( runs, 0.25d )) / Statistics.median( runs );
+	}
+
+	/**
+	 * @return nanos taken by each run of the workload, after warming it up
+	 */
+	private static double[] measure() {
+		final long warm = System.nanoTime() + WARMUP_NANOS;
+		while( System.nanoTime() < warm ) {
+			sink += workload();
+		}
+		final double[] runs = new double[RUNS];
+		for( int run=0;run<RUNS;run++ ) {
+			final long start = System.nanoTime();
+			sink += workload();
+			runs[run] = System.nanoTime() - start;
+		}
+		return runs;
+	}
+
+	/**
+	 * a mix of arithmetic, random memory access and allocation, in short
+	 * steps so the jit compiles each step as a whole method rather than
+	 * replacing one long loop while it runs.
+	 *
+	 * @return a value depending on all the work done
+	 */
+	private static long workload() {
+		final int[] table = new int[SIZE];
+		final long[] state = { 0x9E3779B97F4A7C15L };
+		long sum = 0;
+		for( int step=0;step<STEPS;step++ ) {
+			sum += step( table, state, step * STEP );
+		}
+		return sum;
+	}
+
+	/**
+	 * @param table
+	 * @param state random number generator state, updated
+	 * @param first index of the first iteration of the step
+	 * @return a value depending on the work done
+	 */
+	private static long step(final int[] table, final long[] state, final int first) {
+		long x = state[0];
+		long sum = 0;
+		for( int i=first;i<first + STEP;i++ ) {
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+			final int slot = (int) (x & (SIZE - 1));
+			table[slot] += i;
+			sum += table[(slot * 31) & (SIZE - 1)];
+			if( (i & 1023) == 0 ) {
+				sum += new StringBuilder().append( x ).length();
+			}
+		}
+		state[0] = x;
+		return sum;
+	}
+}
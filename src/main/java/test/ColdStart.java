@@ -0,0 +1,148 @@
+package test;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * measures what the first use of a component costs: building the first
+ * component, the first call to <code>verifyFunctionality</code>, and the
+ * number of calls until latency settles. also records how many classes were
+ * loaded and how much time the jit compiler spent during that window. the
+ * jvm only reports the total time spent compiling, not how many methods were
+ * compiled, so the jit is reported as time.
+ *
+ * the figures are only real in a jvm that has not run the component before,
+ * so the measurement can be run in a fresh jvm with
+ * <code>inFreshJvm</code>, which launches this class' <code>main</code> with
+ * the same heap settings, assertions and harness properties as this jvm.
+ *
+ * @author patrick
+ *
+ */
+public final class ColdStart implements TestFixture {
+
+	static final String REPORT = "cold start for '%s': first component built in %.3f ms, first call took %.3f ms, "
+			+ "latency settled at %.3f ms after %d calls%s. %d classes loaded, %d ms of jit compilation time.";
+	static final String NOT_SETTLED = " (did not settle)";
+	static final String FRESH_JVM_FAILED = "cold start measurement in a fresh jvm exited with %d.";
+	static final String FRESH_JVM_TIMED_OUT = "cold start measurement in a fresh jvm took more than %d seconds and was stopped.";
+
+	// how long the fresh jvm may take, in seconds
+	private static final long FRESH_JVM_TIMEOUT = 300;
+
+	// calls compared on each side when deciding if latency has settled
+	private static final int WINDOW = 20;
+
+	// latency has settled when the median of two consecutive windows differ by less than this
+	private static final double TOLERANCE = 0.1d;
+
+	// hide constructor
+	private ColdStart(){}
+
+	/**
+	 * measure the cold start of the fixture in this jvm.
+	 *
+	 * @param fixture
+	 * @param maxCalls give up waiting for latency to settle after this many calls
+	 * @return report of the measurement
+	 * @throws Exception
+	 */
+	static <C, D> String measure(final BaseTestCase<C, D> fixture, final int maxCalls) throws Exception {
+		final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+		final CompilationMXBean compilation = ManagementFactory.getCompilationMXBean();
+		final boolean timed = (compilation != null) && compilation.isCompilationTimeMonitoringSupported();
+		final long classesBefore = classLoading.getTotalLoadedClassCount();
+		final long jitBefore = timed ? compilation.getTotalCompilationTime() : 0;
+
+		final Map<String, Object> params = fixture.getFunctionalTestingParameters();
+		final AtomicInteger counter = new AtomicInteger(0);
+
+		// first component
+		long start = System.nanoTime();
+		final C componentUnderTest = fixture.getComponentUnderTest();
+		final long build = System.nanoTime() - start;
+
+		// calls until latency settles
+		final long[] latencies = new long[Math.max( 2 * WINDOW, maxCalls )];
+		int calls = 0;
+		boolean settled = false;
+		while( !settled && (calls < latencies.length) ) {
+			final D testData = fixture.generateTestData( params );
+			start = System.nanoTime();
+			fixture.verifyFunctionality( params, componentUnderTest, testData, counter );
+			latencies[calls++] = System.nanoTime() - start;
+			if( (calls >= 2 * WINDOW) && (calls % WINDOW == 0) ) {
+				final long previous = median( latencies, calls - 2 * WINDOW, calls - WINDOW );
+				final long current = median( latencies, calls - WINDOW, calls );
+				settled = Math.abs( current - previous ) <= TOLERANCE * Math.max( 1, previous );
+			}
+		}
+
+		final long classes = classLoading.getTotalLoadedClassCount() - classesBefore;
+		final long jit = timed ? compilation.getTotalCompilationTime() - jitBefore : 0;
+		return String.format( REPORT, fixture.getClass().getSimpleName(), build / 1e6d, latencies[0] / 1e6d,
+				median( latencies, Math.max( 0, calls - WINDOW ), calls ) / 1e6d, calls,
+				settled ? "" : NOT_SETTLED, classes, jit );
+	}
+
+	/**
+	 * run the cold start measurement of the fixture in a new jvm with the same
+	 * class path, and copy its output to <code>System.out</code>.
+	 *
+	 * @param fixture
+	 * @param maxCalls
+	 * @return why the measurement failed, or <code>null</code> if it succeeded
+	 * @throws Exception
+	 */
+	static String inFreshJvm(final Class<?> fixture, final int maxCalls) throws Exception {
+		final List<String> command = LoadCoordinator.javaCommand( Collections.<String>emptyList() );
+		command.add( ColdStart.class.getName() );
+		command.add( fixture.getName() );
+		command.add( Integer.toString( maxCalls ) );
+		final ProcessBuilder builder = new ProcessBuilder( command );
+		builder.redirectErrorStream( true );
+		builder.redirectOutput( ProcessBuilder.Redirect.INHERIT );
+		final Process process = builder.start();
+		if( !process.waitFor( FRESH_JVM_TIMEOUT, TimeUnit.SECONDS ) ) {
+			process.destroyForcibly().waitFor();
+			return String.format( FRESH_JVM_TIMED_OUT, FRESH_JVM_TIMEOUT );
+		}
+		return process.exitValue() == 0 ? null : String.format( FRESH_JVM_FAILED, process.exitValue() );
+	}
+
+	/**
+	 * @param latencies
+	 * @param from inclusive
+	 * @param to exclusive
+	 * @return median of the range
+	 */
+	private static long median(final long[] latencies, final int from, final int to) {
+		final long[] range = Arrays.copyOfRange( latencies, from, to );
+		Arrays.sort( range );
+		return range[range.length / 2];
+	}
+
+	/**
+	 * entry point for the fresh jvm. the fixture is set up and torn down with
+	 * its junit lifecycle methods, the set up is not part of the measurement.
+	 *
+	 * @param args fixture class name and the max number of calls
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		final BaseTestCase<?, ?> fixture = FixtureLifecycle.setUp( Class.forName( args[0] ) );
+		try {
+			System.out.println( measure( fixture, Integer.parseInt( args[1] ) ) );
+		} finally {
+			FixtureLifecycle.tearDown( fixture );
+		}
+		System.exit( 0 );
+	}
+}
@@ -0,0 +1,392 @@
+package test;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * off-heap memory for generated test data. fixtures that generate many small
+ * records write them into the arena instead of allocating an object for
+ * each, and read them back through flyweights, so the garbage collector has
+ * nothing to do with them and does not get charged to the component.
+ *
+ * memory comes in direct byte buffer slabs. each thread allocates from a slab
+ * of its own, so users can generate data in parallel. records are addressed
+ * by handles, which stay valid until the arena is closed; the harness closes
+ * the arena of a fixture at the end of every phase and frees its slabs right
+ * away rather than when the collector gets to them. a flyweight used after
+ * that fails instead of reading freed memory.
+ *
+ * closing does not wait for readers: a flyweight that checked the arena just
+ * before it was closed can still read freed memory. whoever closes the arena
+ * has to make sure nothing uses it anymore. the harness only frees it when
+ * none of the users of the phase are still running, otherwise it leaves the
+ * slabs to the collector.
+ *
+ * data in the arena can't be kept in a test data snapshot, handles mean
+ * nothing outside of the arena that gave them.
+ *
+ * @author patrick
+ *
+ */
+public final class DataArena implements TestFixture, Closeable {
+
+	/**
+	 * size of a slab unless given, 1 MB.
+	 */
+	public static final int DEFAULT_SLAB_BYTES = 1 << 20;
+
+	static final String FREED = "freed %d bytes of off-heap test data in %d slabs after the %s test.";
+	static final String NOT_FREED = "left %d bytes of off-heap test data to the collector after the %s test, %d users were still running.";
+	static final String CLOSED = "the data arena was freed at the end of its phase, views into it can't be used anymore.";
+	static final String BAD_SIZE = "a record can't take %d bytes.";
+
+	// records start on 8 byte boundaries, so longs and doubles are aligned
+	private static final int ALIGNMENT = 8;
+
+	// frees a direct buffer now, or null if this jvm offers no way to
+	private static final Method CLEANER = cleaner();
+	private static final Object UNSAFE = unsafe();
+
+	private final int slabBytes;
+	// slab index and next free offset of the slab of each thread, kept here
+	// rather than in a thread local so pooled threads don't hold on to them
+	private final Map<Thread, int[]> current = new ConcurrentHashMap<Thread, int[]>();
+	private volatile ByteBuffer[] slabs = new ByteBuffer[16];
+	private volatile boolean closed = false;
+	private int slabCount = 0;
+	private long reservedBytes = 0;
+
+	public DataArena() {
+		this(DEFAULT_SLAB_BYTES);
+	}
+
+	/**
+	 * @param slabBytes size of the slabs memory is taken from, records that
+	 *        don't fit in one get a slab of their own
+	 */
+	public DataArena(final int slabBytes) {
+		this.slabBytes = Math.max(ALIGNMENT, slabBytes);
+	}
+
+	/**
+	 * reserve memory for a record.
+	 *
+	 * @param bytes size of the record
+	 * @return handle of the record
+	 */
+	public long allocate(final int bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException(String.format(BAD_SIZE, bytes));
+		}
+		checkOpen();
+		final int size = (bytes + ALIGNMENT - 1) & -ALIGNMENT;
+		if (size > slabBytes) {
+			return handle(newSlab(size), 0);
+		}
+		int[] slab = current.get(Thread.currentThread());
+		if ((slab == null) || (slab[1] + size > slabBytes)) {
+			slab = new int[] { newSlab(slabBytes), 0 };
+			current.put(Thread.currentThread(), slab);
+		}
+		final long handle = handle(slab[0], slab[1]);
+		slab[1] += size;
+		return handle;
+	}
+
+	/**
+	 * point a flyweight at a record.
+	 *
+	 * @param flyweight to reuse
+	 * @param handle of the record
+	 * @return the flyweight
+	 */
+	public <F extends Flyweight> F view(final F flyweight, final long handle) {
+		checkOpen();
+		final Flyweight view = flyweight;
+		view.arena = this;
+		view.buffer = slabs[(int) (handle >>> 32)];
+		view.offset = (int) handle;
+		view.handle = handle;
+		return flyweight;
+	}
+
+	/**
+	 * @param value
+	 * @return handle of the string, stored as its length and utf-8 bytes, or
+	 *         -1 for <code>null</code>
+	 */
+	public long putString(final String value) {
+		if (value == null) {
+			return -1;
+		}
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		final long handle = allocate(4 + bytes.length);
+		final ByteBuffer buffer = slabs[(int) (handle >>> 32)];
+		final int offset = (int) handle;
+		buffer.putInt(offset, bytes.length);
+		// a duplicate for the bulk copy, the slab's position is shared by every thread
+		final ByteBuffer target = buffer.duplicate();
+		target.position(offset + 4);
+		target.put(bytes);
+		return handle;
+	}
+
+	/**
+	 * @param handle from <code>putString</code>
+	 * @return the string
+	 */
+	public String getString(final long handle) {
+		if (handle == -1) {
+			return null;
+		}
+		checkOpen();
+		final ByteBuffer buffer = slabs[(int) (handle >>> 32)];
+		final int offset = (int) handle;
+		final byte[] bytes = new byte[buffer.getInt(offset)];
+		final ByteBuffer source = buffer.duplicate();
+		source.position(offset + 4);
+		source.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return off-heap bytes held by the arena
+	 */
+	public synchronized long getReservedBytes() {
+		return reservedBytes;
+	}
+
+	/**
+	 * @return number of slabs held by the arena
+	 */
+	public synchronized int getSlabCount() {
+		return slabCount;
+	}
+
+	/**
+	 * free every slab. the users of the arena must be done with it, views
+	 * that are still being read while it closes may read freed memory.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		current.clear();
+		final ByteBuffer[] freed = slabs;
+		slabs = new ByteBuffer[0];
+		for (int i = 0; i < slabCount; i++) {
+			free(freed[i]);
+			freed[i] = null;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> once the arena has been freed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @param size
+	 * @return index of a new slab of the size
+	 */
+	private synchronized int newSlab(final int size) {
+		checkOpen();
+		final ByteBuffer[] grown = slabCount == slabs.length ? Arrays.copyOf(slabs, slabCount * 2) : slabs;
+		grown[slabCount] = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+		reservedBytes += size;
+		// publish the array with the new slab in it to other threads
+		slabs = grown;
+		return slabCount++;
+	}
+
+	/**
+	 * @param slab
+	 * @param offset
+	 * @return the handle of the offset in the slab
+	 */
+	private static long handle(final int slab, final int offset) {
+		return ((long) slab << 32) | (offset & 0xffffffffL);
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException(CLOSED);
+		}
+	}
+
+	/**
+	 * free the memory of a direct buffer now. when the jvm offers no way to,
+	 * the buffer is left for the collector.
+	 *
+	 * @param buffer
+	 */
+	private static void free(final ByteBuffer buffer) {
+		try {
+			if (UNSAFE != null) {
+				CLEANER.invoke(UNSAFE, buffer);
+			} else if (CLEANER != null) {
+				final Object cleaner = CLEANER.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (final Exception e) {
+			// left for the collector
+		}
+	}
+
+	/**
+	 * @return <code>Unsafe.invokeCleaner</code> on java 9 and later, the
+	 *         <code>cleaner</code> method of direct buffers on java 8, or
+	 *         <code>null</code>
+	 */
+	private static Method cleaner() {
+		try {
+			return Class.forName("sun.misc.Unsafe").getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (final Exception e) {
+			// java 8
+		}
+		try {
+			final Method cleaner = ByteBuffer.allocateDirect(1).getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			return cleaner;
+		} catch (final Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the unsafe instance when <code>invokeCleaner</code> is
+	 *         available, otherwise <code>null</code>
+	 */
+	private static Object unsafe() {
+		try {
+			final Class<?> type = Class.forName("sun.misc.Unsafe");
+			type.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			return field.get(null);
+		} catch (final Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * a reusable view of one record in an arena. subclasses give the fields
+	 * of a record names, with getters and setters that read and write at
+	 * fixed offsets from the start of the record:
+	 *
+	 * <pre>
+	 * static final class Point extends DataArena.Flyweight {
+	 *     static final int SIZE = 16;
+	 *     long x() { return getLong(0); }
+	 *     void x(long x) { putLong(0, x); }
+	 *     long y() { return getLong(8); }
+	 *     void y(long y) { putLong(8, y); }
+	 * }
+	 * </pre>
+	 *
+	 * a flyweight is not thread safe, give every user its own. it notices an
+	 * arena that was closed before it is used, not one closed while it reads.
+	 */
+	public abstract static class Flyweight {
+		private DataArena arena = null;
+		private ByteBuffer buffer = null;
+		private int offset = 0;
+		private long handle = -1;
+
+		/**
+		 * @return handle of the record viewed
+		 */
+		public final long handle() {
+			return handle;
+		}
+
+		protected final byte getByte(final int field) {
+			return buffer().get(offset + field);
+		}
+
+		protected final void putByte(final int field, final byte value) {
+			buffer().put(offset + field, value);
+		}
+
+		protected final short getShort(final int field) {
+			return buffer().getShort(offset + field);
+		}
+
+		protected final void putShort(final int field, final short value) {
+			buffer().putShort(offset + field, value);
+		}
+
+		protected final int getInt(final int field) {
+			return buffer().getInt(offset + field);
+		}
+
+		protected final void putInt(final int field, final int value) {
+			buffer().putInt(offset + field, value);
+		}
+
+		protected final long getLong(final int field) {
+			return buffer().getLong(offset + field);
+		}
+
+		protected final void putLong(final int field, final long value) {
+			buffer().putLong(offset + field, value);
+		}
+
+		protected final float getFloat(final int field) {
+			return buffer().getFloat(offset + field);
+		}
+
+		protected final void putFloat(final int field, final float value) {
+			buffer().putFloat(offset + field, value);
+		}
+
+		protected final double getDouble(final int field) {
+			return buffer().getDouble(offset + field);
+		}
+
+		protected final void putDouble(final int field, final double value) {
+			buffer().putDouble(offset + field, value);
+		}
+
+		/**
+		 * @param field 8 byte field holding the handle of the string
+		 * @return the string
+		 */
+		protected final String getString(final int field) {
+			return arena.getString(getLong(field));
+		}
+
+		/**
+		 * store a string in the arena and its handle in the field
+		 *
+		 * @param field 8 byte field
+		 * @param value
+		 */
+		protected final void putString(final int field, final String value) {
+			putLong(field, arena.putString(value));
+		}
+
+		/**
+		 * @return the slab of the record, if the arena is still open
+		 */
+		private ByteBuffer buffer() {
+			if ((arena == null) || arena.closed) {
+				throw new IllegalStateException(CLOSED);
+			}
+			return buffer;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package test;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * asynchronous event log for messages raised on measured threads.
+ *
+ * <code>System.out</code> is synchronized, so printing from user threads makes
+ * the console part of what is being measured. instead, callers drop a
+ * template and its arguments into a preallocated ring buffer without taking a
+ * lock, and a background thread formats and writes them. when the buffer is
+ * full the event is dropped and counted rather than blocking the caller.
+ *
+ * call <code>flush</code> before printing directly to
+ * <code>System.out</code> to keep the output in order.
+ *
+ * @author patrick
+ *
+ */
+public final class EventLog implements TestFixture {
+
+	static final String DROPPED = "%d log events were dropped because the event log was full.";
+
+	// must be a power of 2
+	private static final int CAPACITY = 1 << 14;
+	private static final int MASK = CAPACITY - 1;
+	private static final int ARGS = 4;
+
+	// preallocated slots
+	private static final String[] templates = new String[CAPACITY];
+	private static final Object[] arguments = new Object[CAPACITY * ARGS];
+	private static final int[] counts = new int[CAPACITY];
+	private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+
+	// next sequence to claim, next sequence to write, and events lost
+	private static final AtomicLong claimed = new AtomicLong();
+	private static final AtomicLong consumed = new AtomicLong();
+	private static final AtomicLong dropped = new AtomicLong();
+
+	private static final PrintStream out = System.out;
+
+	static {
+		for( int i=0;i<CAPACITY;i++ ) {
+			published.set( i, -1 );
+		}
+		final Thread consumer = new Thread( new Runnable() {
+			@Override public void run() {
+				consume();
+			}
+		}, "event-log" );
+		consumer.setDaemon( true );
+		consumer.start();
+		Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+			@Override public void run() {
+				flush();
+			}
+		}));
+	}
+
+	// hide constructor
+	private EventLog(){}
+
+	/**
+	 * @param template
+	 */
+	public static void log(final String template) {
+		publish( template, 0, null, null, null, null );
+	}
+
+	/**
+	 * @param template format string
+	 * @param a
+	 */
+	public static void log(final String template, final Object a) {
+		publish( template, 1, a, null, null, null );
+	}
+
+	/**
+	 * @param template format string
+	 * @param a
+	 * @param b
+	 */
+	public static void log(final String template, final Object a, final Object b) {
+		publish( template, 2, a, b, null, null );
+	}
+
+	/**
+	 * @param template format string
+	 * @param a
+	 * @param b
+	 * @param c
+	 */
+	public static void log(final String template, final Object a, final Object b, final Object c) {
+		publish( template, 3, a, b, c, null );
+	}
+
+	/**
+	 * @param template format string
+	 * @param a
+	 * @param b
+	 * @param c
+	 * @param d
+	 */
+	public static void log(final String template, final Object a, final Object b, final Object c, final Object d) {
+		publish( template, 4, a, b, c, d );
+	}
+
+	/**
+	 * block until every event logged so far has been written.
+	 */
+	public static void flush() {
+		final long target = claimed.get();
+		while( consumed.get() < target ) {
+			LockSupport.parkNanos( 100000L );
+		}
+		final long lost = dropped.getAndSet( 0 );
+		if( lost > 0 ) {
+			out.println( String.format( DROPPED, lost ) );
+		}
+		out.flush();
+	}
+
+	/**
+	 * claim a slot, fill it and publish it. never blocks.
+	 */
+	private static void publish(final String template, final int count, final Object a, final Object b, final Object c, final Object d) {
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if( sequence - consumed.get() >= CAPACITY ) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while( !claimed.compareAndSet( sequence, sequence + 1 ) );
+
+		final int slot = (int) (sequence & MASK);
+		final int base = slot * ARGS;
+		templates[slot] = template;
+		counts[slot] = count;
+		arguments[base] = a;
+		arguments[base + 1] = b;
+		arguments[base + 2] = c;
+		arguments[base + 3] = d;
+		published.lazySet( slot, sequence );
+	}
+
+	/**
+	 * background loop that formats and writes published events in order.
+	 */
+	private static void consume() {
+		long sequence = 0;
+		while( true ) {
+			final int slot = (int) (sequence & MASK);
+			if( published.get( slot ) != sequence ) {
+				LockSupport.parkNanos( 1000000L );
+				continue;
+			}
+			final int base = slot * ARGS;
+			final Object[] args = new Object[counts[slot]];
+			System.arraycopy( arguments, base, args, 0, args.length );
+			final String template = templates[slot];
+
+			// release references, but only hand the slot back once the event is
+			// written, so that flush does not return before it is
+			templates[slot] = null;
+			for( int i=0;i<ARGS;i++ ) {
+				arguments[base + i] = null;
+			}
+			try {
+				out.println( args.length == 0 ? template : String.format( template, args ) );
+			} catch( final RuntimeException e ) {
+				out.println( template );
+			}
+			consumed.set( ++sequence );
+		}
+	}
+}
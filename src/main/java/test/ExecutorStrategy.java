@@ -0,0 +1,40 @@
+package test;
+
+/**
+ * the kinds of executor that can run the simulated users of a thread safety
+ * test. set the name of one of these as the
+ * <code>executor.strategy</code> thread safety parameter.
+ *
+ * @author patrick
+ *
+ */
+public enum ExecutorStrategy {
+
+	/**
+	 * unbounded cached pool: every user gets its own thread. this is the default.
+	 */
+	CACHED,
+
+	/**
+	 * fixed pool with one thread per available core. users beyond that wait in
+	 * the queue.
+	 */
+	FIXED,
+
+	/**
+	 * work stealing fork/join pool sized to the available cores.
+	 */
+	WORK_STEALING,
+
+	/**
+	 * pool with one thread per core and a bounded queue. users that do not fit
+	 * are rejected, which fails the thread safety test.
+	 */
+	BOUNDED,
+
+	/**
+	 * the executor returned by the fixture's <code>getProductionExecutor</code>.
+	 * the harness never shuts it down.
+	 */
+	PROVIDED
+}
@@ -0,0 +1,92 @@
+package test;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+/**
+ * creates a fixture outside of junit, in a worker or fresh jvm, and runs its
+ * <code>@BeforeClass</code> and <code>@Before</code> methods the way junit
+ * would, so that the state and services they set up are there when the
+ * harness uses the fixture. <code>@After</code> and <code>@AfterClass</code>
+ * run when it is closed. set up methods of superclasses run first, tear down
+ * methods of subclasses run first.
+ *
+ * @author patrick
+ *
+ */
+final class FixtureLifecycle implements TestFixture {
+
+	// hide constructor
+	private FixtureLifecycle(){}
+
+	/**
+	 * create the fixture and run its set up methods.
+	 *
+	 * @param type fixture class
+	 * @return the fixture, ready to be used
+	 * @throws Exception from a set up method
+	 */
+	static BaseTestCase<?, ?> setUp(final Class<?> type) throws Exception {
+		invoke( null, type, BeforeClass.class, true, false );
+		final BaseTestCase<?, ?> fixture = (BaseTestCase<?, ?>) type.getDeclaredConstructor().newInstance();
+		invoke( fixture, type, Before.class, false, false );
+		return fixture;
+	}
+
+	/**
+	 * run the tear down methods of the fixture.
+	 *
+	 * @param fixture
+	 * @throws Exception from a tear down method
+	 */
+	static void tearDown(final BaseTestCase<?, ?> fixture) throws Exception {
+		try {
+			invoke( fixture, fixture.getClass(), After.class, false, true );
+		} finally {
+			invoke( null, fixture.getClass(), AfterClass.class, true, true );
+		}
+	}
+
+	/**
+	 * @param fixture instance, or <code>null</code> for the static methods
+	 * @param type
+	 * @param annotation
+	 * @param statics <code>true</code> for the static methods, otherwise the instance ones
+	 * @param subclassFirst order to run them in
+	 * @throws Exception
+	 */
+	private static void invoke(final Object fixture, final Class<?> type, final Class<? extends Annotation> annotation,
+			final boolean statics, final boolean subclassFirst) throws Exception {
+		final List<Method> methods = new ArrayList<Method>();
+		for( final Method method : StressRunner.getAnnotatedMethods( type, annotation ) ) {
+			if( Modifier.isStatic( method.getModifiers() ) == statics ) {
+				methods.add( method );
+			}
+		}
+		if( !subclassFirst ) {
+			Collections.reverse( methods );
+		}
+		for( final Method method : methods ) {
+			try {
+				method.invoke( fixture );
+			} catch( final InvocationTargetException e ) {
+				if( e.getCause() instanceof Exception ) {
+					throw (Exception) e.getCause();
+				} else if( e.getCause() instanceof Error ) {
+					throw (Error) e.getCause();
+				}
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * creates the executors used for thread safety testing and keeps them for
+ * reuse across fixtures. a fixture checks an executor out and releases it when
+ * it is done; until then no other fixture gets it, and when every executor of
+ * a strategy is checked out or still busy a new one is created next to them.
+ * executors that were not checked out for <code>IDLE_TIMEOUT</code> are shut
+ * down, and all executors created here are shut down when the jvm exits.
+ *
+ * @author patrick
+ *
+ */
+final class HarnessExecutors implements TestFixture {
+
+	static final String STATISTICS = "executor '%s': queue depth %d, %d active, %d rejected.";
+
+	private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+	// how long an executor is kept after its last release, in nanos
+	static final long IDLE_TIMEOUT = 5 * 60 * 1000000000L;
+
+	// shared executors by strategy and queue size
+	private static final Map<String, List<ExecutorService>> executors = new ConcurrentHashMap<String, List<ExecutorService>>();
+
+	// executors handed out and not released yet
+	private static final Map<ExecutorService, Boolean> checkedOut = new IdentityHashMap<ExecutorService, Boolean>();
+
+	// when each executor was last released
+	private static final Map<ExecutorService, Long> released = new IdentityHashMap<ExecutorService, Long>();
+
+	// numbers user threads across all executors
+	private static final AtomicInteger threads = new AtomicInteger();
+
+	static {
+		Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+			@Override public void run() {
+				synchronized( HarnessExecutors.class ) {
+					for( final List<ExecutorService> shared : executors.values() ) {
+						for( final ExecutorService executor : shared ) {
+							executor.shutdownNow();
+						}
+					}
+				}
+			}
+		}));
+	}
+
+	// hide constructor
+	private HarnessExecutors(){}
+
+	/**
+	 * reserve an executor until it is released
+	 *
+	 * @param strategy any strategy except <code>PROVIDED</code>
+	 * @param queueSize queue capacity for the <code>BOUNDED</code> strategy
+	 * @return an idle executor for the strategy that nobody else has checked out
+	 */
+	static synchronized ExecutorService checkout(final ExecutorStrategy strategy, final int queueSize) {
+		shutDownUnused( System.nanoTime() );
+		final String key = strategy == ExecutorStrategy.BOUNDED ? strategy + "-" + queueSize : strategy.name();
+		List<ExecutorService> shared = executors.get( key );
+		if( shared == null ) {
+			shared = new ArrayList<ExecutorService>();
+			executors.put( key, shared );
+		}
+		for( final ExecutorService executor : shared ) {
+			if( !checkedOut.containsKey( executor ) && isIdle( executor ) ) {
+				checkedOut.put( executor, Boolean.TRUE );
+				return executor;
+			}
+		}
+		final ExecutorService executor = create( strategy, queueSize );
+		shared.add( executor );
+		checkedOut.put( executor, Boolean.TRUE );
+		return executor;
+	}
+
+	/**
+	 * hand a checked out executor back for other fixtures to use. executors
+	 * that were not checked out here, like the fixture's production executor,
+	 * are left alone.
+	 *
+	 * @param executor
+	 */
+	static synchronized void release(final ExecutorService executor) {
+		if( checkedOut.remove( executor ) != null ) {
+			released.put( executor, System.nanoTime() );
+		}
+		shutDownUnused( System.nanoTime() );
+	}
+
+	/**
+	 * shut down the executors that nobody checked out for
+	 * <code>IDLE_TIMEOUT</code>, keeping those that are still busy
+	 *
+	 * @param now
+	 */
+	private static void shutDownUnused(final long now) {
+		for( final List<ExecutorService> shared : executors.values() ) {
+			final Iterator<ExecutorService> iterator = shared.iterator();
+			while( iterator.hasNext() ) {
+				final ExecutorService executor = iterator.next();
+				final Long last = released.get( executor );
+				if( !checkedOut.containsKey( executor ) && (last != null)
+						&& (now - last >= IDLE_TIMEOUT) && isIdle( executor ) ) {
+					executor.shutdown();
+					released.remove( executor );
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param strategy
+	 * @param queueSize
+	 * @return a new executor for the strategy
+	 */
+	private static ExecutorService create(final ExecutorStrategy strategy, final int queueSize) {
+		final ThreadFactory factory = new ThreadFactory() {
+			@Override public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread( r, String.format( "harness-user-%d", threads.incrementAndGet() ) );
+				thread.setDaemon( true );
+				return thread;
+			}
+		};
+		switch( strategy ) {
+		case FIXED:
+			return Executors.newFixedThreadPool( CORES, factory );
+		case WORK_STEALING:
+			return new ForkJoinPool( CORES, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				@Override public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+					final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( pool );
+					thread.setName( String.format( "harness-user-%d", threads.incrementAndGet() ) );
+					thread.setDaemon( true );
+					return thread;
+				}
+			}, null, false );
+		case BOUNDED:
+			return new ThreadPoolExecutor( CORES, CORES, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>( Math.max( 1, queueSize ) ), factory );
+		case CACHED:
+			return new ThreadPoolExecutor( 0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(), factory );
+		default:
+			throw new IllegalArgumentException( String.format( "the harness does not create '%s' executors.", strategy ) );
+		}
+	}
+
+	/**
+	 * @param executor
+	 * @return <code>true</code> if nothing is running or waiting on the executor
+	 */
+	static boolean isIdle(final ExecutorService executor) {
+		return !executor.isShutdown() && (getActiveCount( executor ) == 0) && (getQueueDepth( executor ) == 0);
+	}
+
+	/**
+	 * @param executor
+	 * @return tasks waiting to run, or -1 if unknown for this kind of executor
+	 */
+	static int getQueueDepth(final ExecutorService executor) {
+		if( executor instanceof ThreadPoolExecutor ) {
+			return ((ThreadPoolExecutor) executor).getQueue().size();
+		} else if( executor instanceof ForkJoinPool ) {
+			final ForkJoinPool pool = (ForkJoinPool) executor;
+			return (int) (pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+		}
+		return -1;
+	}
+
+	/**
+	 * @param executor
+	 * @return threads running tasks, or -1 if unknown for this kind of executor
+	 */
+	static int getActiveCount(final ExecutorService executor) {
+		if( executor instanceof ThreadPoolExecutor ) {
+			return ((ThreadPoolExecutor) executor).getActiveCount();
+		} else if( executor instanceof ForkJoinPool ) {
+			return ((ForkJoinPool) executor).getActiveThreadCount();
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,432 @@
+package test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import common.AssertTestHelper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * collects live metrics for the fixture and phase that is currently running.
+ * there is one instance per jvm. it is registered with the platform mbean
+ * server the first time it is used, and optionally served as plain text over
+ * http on localhost when the <code>test.harness.metrics.port</code> system
+ * property is set.
+ *
+ * latency percentiles and throughput are computed over a rolling window of
+ * recent operations, sampled at random one in <code>ROLLING_SAMPLE</code>.
+ * every latency of the phase is also kept in a histogram, for figures that
+ * have to cover the whole phase.
+ *
+ * recording a call is on the measured path of every user, so each thread
+ * counts its calls and records its latencies on its own, and they are only
+ * added up when read. the users don't contend with each other for the
+ * metrics.
+ *
+ * @author patrick
+ *
+ */
+public final class HarnessMetrics implements HarnessMetricsMXBean, TestFixture {
+
+	/**
+	 * system property with the local port to serve plain text metrics on.
+	 */
+	public static final String METRICS_PORT = "test.harness.metrics.port";
+
+	/**
+	 * name the metrics are registered under in the platform mbean server.
+	 */
+	public static final String OBJECT_NAME = "test:type=HarnessMetrics";
+
+	// number of recent operations to keep for rolling figures
+	private static final int WINDOW = 4096;
+
+	// one operation in this many, on each thread, goes into the rolling window
+	private static final int ROLLING_SAMPLE = 8;
+
+	private static HarnessMetrics instance = null;
+
+	private volatile String fixture = "";
+	private volatile String phase = "";
+	private volatile boolean stopRequested = false;
+	private final AtomicInteger inFlightUsers = new AtomicInteger();
+
+	// cpu time of finished users, in nanos
+	private final AtomicLong cpuTime = new AtomicLong();
+	private final AtomicLong userTime = new AtomicLong();
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final ThreadLocal<long[]> cpuAtStart = new ThreadLocal<long[]>();
+
+	// bytes allocated by finished users, when the jvm can measure it
+	private final AtomicLong allocated = new AtomicLong();
+	private final com.sun.management.ThreadMXBean allocations;
+
+	// latencies of the current phase, recorded by each thread on its own
+	private final ThreadHistograms histograms = new ThreadHistograms();
+
+	// what users in other jvms did in the current phase
+	private final LatencyHistogram merged = new LatencyHistogram();
+	private final AtomicLong mergedCompleted = new AtomicLong();
+
+	// latencies over time, when the phase records intervals
+	private volatile IntervalRecorder intervals = null;
+
+	// stacks of the users, when the phase is profiled
+	private volatile StackSampler profiler = null;
+
+	// watches the progress of the users, when the phase is watched
+	private volatile Watchdog watchdog = null;
+
+	// rolling window of sampled latencies and completion times, in nanos
+	private final long[] latencies = new long[WINDOW];
+	private final long[] completions = new long[WINDOW];
+	private final AtomicLong cursor = new AtomicLong();
+
+	// hide constructor
+	private HarnessMetrics(){
+		if( threads.isThreadCpuTimeSupported() && !threads.isThreadCpuTimeEnabled() ) {
+			threads.setThreadCpuTimeEnabled( true );
+		}
+		com.sun.management.ThreadMXBean sun = null;
+		if( threads instanceof com.sun.management.ThreadMXBean ) {
+			sun = (com.sun.management.ThreadMXBean) threads;
+			if( sun.isThreadAllocatedMemorySupported() && !sun.isThreadAllocatedMemoryEnabled() ) {
+				sun.setThreadAllocatedMemoryEnabled( true );
+			}
+			if( !sun.isThreadAllocatedMemorySupported() ) {
+				sun = null;
+			}
+		}
+		allocations = sun;
+	}
+
+	/**
+	 * @return the metrics for this jvm, registering them on first use
+	 */
+	public static synchronized HarnessMetrics get() {
+		if( instance == null ) {
+			instance = new HarnessMetrics();
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean( instance, new ObjectName( OBJECT_NAME ) );
+			} catch( final Exception e ) {
+				System.out.println( String.format( "unable to register '%s': %s", OBJECT_NAME, e.getMessage() ) );
+			}
+			final String port = System.getProperty( METRICS_PORT );
+			if( port != null ) {
+				instance.serve( Integer.parseInt( port.trim() ) );
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * start collecting for a new phase.
+	 *
+	 * @param fixture
+	 * @param phase
+	 */
+	public void startPhase(final String fixture, final String phase) {
+		this.fixture = fixture;
+		this.phase = phase;
+		stopRequested = false;
+		inFlightUsers.set( 0 );
+		histograms.reset();
+		mergedCompleted.set( 0 );
+		cpuTime.set( 0 );
+		userTime.set( 0 );
+		allocated.set( 0 );
+		merged.reset();
+		intervals = null;
+		profiler = null;
+		watchdog = null;
+		cursor.set( 0 );
+	}
+
+	/**
+	 * a simulated user started on the current thread
+	 */
+	public void userStarted() {
+		inFlightUsers.incrementAndGet();
+		final StackSampler sampler = profiler;
+		if( sampler != null ) {
+			sampler.userStarted();
+		}
+		final Watchdog watcher = watchdog;
+		if( watcher != null ) {
+			watcher.userStarted();
+		}
+		if( threads.isCurrentThreadCpuTimeSupported() ) {
+			cpuAtStart.set( new long[] { threads.getCurrentThreadCpuTime(), threads.getCurrentThreadUserTime(), allocatedByCurrentThread() } );
+		}
+	}
+
+	/**
+	 * the simulated user on the current thread finished
+	 */
+	public void userFinished() {
+		inFlightUsers.decrementAndGet();
+		final StackSampler sampler = profiler;
+		if( sampler != null ) {
+			sampler.userFinished();
+		}
+		final Watchdog watcher = watchdog;
+		if( watcher != null ) {
+			watcher.userFinished();
+		}
+		final long[] start = cpuAtStart.get();
+		if( start != null ) {
+			cpuAtStart.remove();
+			cpuTime.addAndGet( threads.getCurrentThreadCpuTime() - start[0] );
+			userTime.addAndGet( threads.getCurrentThreadUserTime() - start[1] );
+			allocated.addAndGet( allocatedByCurrentThread() - start[2] );
+		}
+	}
+
+	/**
+	 * @return bytes allocated by the current thread so far, or 0 if the jvm can't tell
+	 */
+	private long allocatedByCurrentThread() {
+		return allocations == null ? 0 : allocations.getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+
+	/**
+	 * record one completed operation.
+	 *
+	 * @param start value of <code>System.nanoTime()</code> when the operation started
+	 * @param end value of <code>System.nanoTime()</code> when the operation ended
+	 */
+	public void record(final long start, final long end) {
+		histograms.record( end - start );
+		if( ThreadLocalRandom.current().nextInt( ROLLING_SAMPLE ) == 0 ) {
+			final int slot = (int) (cursor.getAndIncrement() % WINDOW);
+			latencies[slot] = end - start;
+			completions[slot] = end;
+		}
+		final IntervalRecorder recorder = intervals;
+		if( recorder != null ) {
+			recorder.record( end - start );
+		}
+		final Watchdog watcher = watchdog;
+		if( watcher != null ) {
+			watcher.progressed( end );
+		}
+	}
+
+	/**
+	 * add what users in another jvm did to the current phase.
+	 *
+	 * @param latencies of their operations
+	 * @param cpuNanos cpu time they used
+	 * @param allocatedBytes bytes they allocated
+	 */
+	void merge(final LatencyHistogram latencies, final long cpuNanos, final long allocatedBytes) {
+		mergedCompleted.addAndGet( latencies.getTotalCount() );
+		merged.add( latencies );
+		cpuTime.addAndGet( cpuNanos );
+		allocated.addAndGet( Math.max( 0, allocatedBytes ) );
+	}
+
+	/**
+	 * @param recorder to also record latencies in, or <code>null</code>
+	 */
+	void setIntervalRecorder(final IntervalRecorder recorder) {
+		intervals = recorder;
+	}
+
+	/**
+	 * @param sampler to sample the stacks of users with, or <code>null</code>
+	 */
+	void setProfiler(final StackSampler sampler) {
+		profiler = sampler;
+	}
+
+	/**
+	 * @param watcher to report the progress of users to, or <code>null</code>
+	 */
+	void setWatchdog(final Watchdog watcher) {
+		watchdog = watcher;
+	}
+
+	/**
+	 * @return every latency recorded in the current phase, added up from the
+	 *         threads that recorded them
+	 */
+	public LatencyHistogram getPhaseLatencies() {
+		final LatencyHistogram phase = histograms.merged();
+		phase.add( merged );
+		return phase;
+	}
+
+	@Override public String getFixture() {
+		return fixture;
+	}
+
+	@Override public String getPhase() {
+		return phase;
+	}
+
+	@Override public int getInFlightUsers() {
+		return inFlightUsers.get();
+	}
+
+	@Override public long getCompletedOperations() {
+		return mergedCompleted.get() + histograms.getTotalCount();
+	}
+
+	@Override public double getCpuTimeMillis() {
+		return cpuTime.get() / 1e6d;
+	}
+
+	@Override public double getUserTimeMillis() {
+		return userTime.get() / 1e6d;
+	}
+
+	@Override public long getAllocatedBytes() {
+		return allocations == null ? -1 : allocated.get();
+	}
+
+	@Override public double getOperationsPerSecond() {
+		final int n = (int) Math.min( cursor.get(), WINDOW );
+		if( n < 2 ) {
+			return 0d;
+		}
+		final long[] times = Arrays.copyOf( completions, n );
+		Arrays.sort( times );
+		final long span = times[n - 1] - times[0];
+		// each sample stands for ROLLING_SAMPLE operations
+		return span <= 0 ? 0d : (n - 1) * ROLLING_SAMPLE * 1e9d / span;
+	}
+
+	@Override public double getLatencyP50Millis() {
+		return percentile( 0.5d );
+	}
+
+	@Override public double getLatencyP90Millis() {
+		return percentile( 0.9d );
+	}
+
+	@Override public double getLatencyP99Millis() {
+		return percentile( 0.99d );
+	}
+
+	@Override public double getLatencyMaxMillis() {
+		return percentile( 1d );
+	}
+
+	@Override public long getGlobalAssertionCount() {
+		try {
+			return AssertTestHelper.getGlobalAssertionCount();
+		} catch( final Exception e ) {
+			return -1;
+		}
+	}
+
+	@Override public Map<String, Long> getNamedAssertionCounts() {
+		try {
+			return AssertTestHelper.getNamedAssertionCounts();
+		} catch( final Exception e ) {
+			return Collections.emptyMap();
+		}
+	}
+
+	@Override public boolean isStopRequested() {
+		return stopRequested;
+	}
+
+	@Override public void requestStop() {
+		stopRequested = true;
+	}
+
+	/**
+	 * @param p percentile between 0 and 1
+	 * @return latency at that percentile over the rolling window, in milliseconds
+	 */
+	private double percentile(final double p) {
+		final int n = (int) Math.min( cursor.get(), WINDOW );
+		if( n == 0 ) {
+			return 0d;
+		}
+		final long[] sorted = Arrays.copyOf( latencies, n );
+		Arrays.sort( sorted );
+		final int index = (int) Math.ceil( p * n ) - 1;
+		return sorted[Math.max( 0, Math.min( n - 1, index ) )] / 1e6d;
+	}
+
+	/**
+	 * @return the metrics in plain text, one <code>name value</code> pair per line
+	 */
+	public String toText() {
+		final StringBuilder text = new StringBuilder();
+		text.append( String.format( "harness_fixture %s%n", getFixture() ) );
+		text.append( String.format( "harness_phase %s%n", getPhase().replace( ' ', '_' ) ) );
+		text.append( String.format( "harness_in_flight_users %d%n", getInFlightUsers() ) );
+		text.append( String.format( "harness_completed_operations %d%n", getCompletedOperations() ) );
+		text.append( String.format( "harness_cpu_time_ms %.3f%n", getCpuTimeMillis() ) );
+		text.append( String.format( "harness_user_time_ms %.3f%n", getUserTimeMillis() ) );
+		text.append( String.format( "harness_allocated_bytes %d%n", getAllocatedBytes() ) );
+		text.append( String.format( "harness_operations_per_second %.2f%n", getOperationsPerSecond() ) );
+		text.append( String.format( "harness_latency_p50_ms %.3f%n", getLatencyP50Millis() ) );
+		text.append( String.format( "harness_latency_p90_ms %.3f%n", getLatencyP90Millis() ) );
+		text.append( String.format( "harness_latency_p99_ms %.3f%n", getLatencyP99Millis() ) );
+		text.append( String.format( "harness_latency_max_ms %.3f%n", getLatencyMaxMillis() ) );
+		text.append( String.format( "harness_assertions_global %d%n", getGlobalAssertionCount() ) );
+		for( final Entry<String, Long> counter : getNamedAssertionCounts().entrySet() ) {
+			text.append( String.format( "harness_assertions{name=\"%s\"} %d%n", counter.getKey(), counter.getValue() ) );
+		}
+		text.append( String.format( "harness_stop_requested %b%n", isStopRequested() ) );
+		return text.toString();
+	}
+
+	/**
+	 * serve the metrics as plain text on the loopback interface.
+	 *
+	 * @param port
+	 */
+	private void serve(final int port) {
+		try {
+			final HttpServer server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+			server.createContext( "/", new HttpHandler() {
+				@Override public void handle(final HttpExchange exchange) throws IOException {
+					if( exchange.getRequestURI().getPath().endsWith( "/stop" ) ) {
+						requestStop();
+					}
+					final byte[] body = toText().getBytes( StandardCharsets.UTF_8 );
+					exchange.getResponseHeaders().set( "Content-Type", "text/plain; charset=utf-8" );
+					exchange.sendResponseHeaders( 200, body.length );
+					final OutputStream out = exchange.getResponseBody();
+					try {
+						out.write( body );
+					} finally {
+						out.close();
+					}
+				}
+			});
+			server.start();
+			Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+				@Override public void run() {
+					server.stop( 0 );
+				}
+			}));
+			System.out.println( String.format( "serving harness metrics on http://localhost:%d/", port ) );
+		} catch( final IOException e ) {
+			System.out.println( String.format( "unable to serve harness metrics on port %d: %s", port, e.getMessage() ) );
+		}
+	}
+}
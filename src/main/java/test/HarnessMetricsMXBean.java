@@ -0,0 +1,95 @@
+package test;
+
+import java.util.Map;
+
+/**
+ * live view of the running fixture and phase. registered with the platform
+ * mbean server so that long running executions can be watched with jconsole
+ * or any other jmx client.
+ *
+ * @author patrick
+ *
+ */
+public interface HarnessMetricsMXBean {
+
+	/**
+	 * @return simple name of the fixture currently running
+	 */
+	String getFixture();
+
+	/**
+	 * @return name of the phase currently running
+	 */
+	String getPhase();
+
+	/**
+	 * @return number of simulated users currently running
+	 */
+	int getInFlightUsers();
+
+	/**
+	 * @return number of <code>verifyFunctionality</code> calls completed in the current phase
+	 */
+	long getCompletedOperations();
+
+	/**
+	 * @return cpu time used by the users that finished in the current phase, in milliseconds
+	 */
+	double getCpuTimeMillis();
+
+	/**
+	 * @return user mode cpu time used by the users that finished in the current phase, in milliseconds
+	 */
+	double getUserTimeMillis();
+
+	/**
+	 * @return bytes allocated by the users that finished in the current phase, or -1 if the jvm can't tell
+	 */
+	long getAllocatedBytes();
+
+	/**
+	 * @return throughput over the most recent operations
+	 */
+	double getOperationsPerSecond();
+
+	/**
+	 * @return median latency of the most recent operations, in milliseconds
+	 */
+	double getLatencyP50Millis();
+
+	/**
+	 * @return 90th percentile latency of the most recent operations, in milliseconds
+	 */
+	double getLatencyP90Millis();
+
+	/**
+	 * @return 99th percentile latency of the most recent operations, in milliseconds
+	 */
+	double getLatencyP99Millis();
+
+	/**
+	 * @return max latency of the most recent operations, in milliseconds
+	 */
+	double getLatencyMaxMillis();
+
+	/**
+	 * @return value of the global defensive programming assertion counter
+	 */
+	long getGlobalAssertionCount();
+
+	/**
+	 * @return values of the named defensive programming assertion counters
+	 */
+	Map<String, Long> getNamedAssertionCounts();
+
+	/**
+	 * @return <code>true</code> if a stop was requested for the current phase
+	 */
+	boolean isStopRequested();
+
+	/**
+	 * ask the running phase to stop early. users finish their current
+	 * operation and then return.
+	 */
+	void requestStop();
+}
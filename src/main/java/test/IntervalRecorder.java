@@ -0,0 +1,220 @@
+package test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * records latency as a series of short intervals, so that warm up, gc pauses
+ * and contention that builds up part way through a phase show up instead of
+ * being averaged away. every user thread records into its own histogram; at
+ * the end of each interval a sampler thread moves them into one merged
+ * histogram for the interval, along with the gc time spent in it.
+ *
+ * the intervals are written as a compact log with one encoded histogram per
+ * line, which can be merged again later, and as a csv of throughput and
+ * percentiles over time. the log is this harness's own format, an
+ * <code>.ilog</code> file: the histograms are base64 encoded by
+ * <code>LatencyHistogram.encode</code> and read back with
+ * <code>LatencyHistogram.decode</code>, so tools for hdrhistogram logs can't
+ * read it.
+ *
+ * @author patrick
+ *
+ */
+final class IntervalRecorder implements TestFixture {
+
+	/**
+	 * system property with the folder to write interval files to.
+	 */
+	static final String INTERVAL_DIR = "test.harness.interval.dir";
+
+	static final String INTERVALS_WRITTEN = "wrote %d intervals of %d ms to '%s' and '%s'.";
+	static final String SLOWEST_INTERVAL = "slowest interval at %.1f seconds: p99 %.3f ms, %d calls, %d ms of gc.";
+
+	private final long intervalNanos;
+
+	// histogram of each user thread, and the one for the current thread
+	private final List<LatencyHistogram> users = new CopyOnWriteArrayList<LatencyHistogram>();
+	private final ThreadLocal<LatencyHistogram> mine = new ThreadLocal<LatencyHistogram>() {
+		@Override protected LatencyHistogram initialValue() {
+			final LatencyHistogram histogram = new LatencyHistogram();
+			users.add( histogram );
+			return histogram;
+		}
+	};
+
+	// merged intervals, only touched by the sampler until it stops
+	private final List<Interval> intervals = new ArrayList<Interval>();
+	private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+	private long start;
+	private long gcAtStart;
+	private volatile boolean running = false;
+	private Thread sampler = null;
+
+	/**
+	 * @param intervalMillis
+	 */
+	IntervalRecorder(final long intervalMillis) {
+		this.intervalNanos = Math.max( 1, intervalMillis ) * 1000000L;
+	}
+
+	/**
+	 * start the sampler thread
+	 */
+	void start() {
+		start = System.nanoTime();
+		gcAtStart = getGcMillis();
+		running = true;
+		sampler = new Thread( new Runnable() {
+			@Override public void run() {
+				long next = start + intervalNanos;
+				while( running ) {
+					LockSupport.parkNanos( next - System.nanoTime() );
+					if( running && (System.nanoTime() >= next) ) {
+						sample( next );
+						next += intervalNanos;
+					}
+				}
+			}
+		}, "interval-recorder" );
+		sampler.setDaemon( true );
+		sampler.start();
+	}
+
+	/**
+	 * record the latency of one call on the current thread.
+	 *
+	 * @param nanos
+	 */
+	void record(final long nanos) {
+		mine.get().record( nanos );
+	}
+
+	/**
+	 * stop the sampler and close the last, partial interval.
+	 *
+	 * @return the intervals
+	 * @throws InterruptedException
+	 */
+	List<Interval> stop() throws InterruptedException {
+		running = false;
+		LockSupport.unpark( sampler );
+		sampler.join();
+		sample( System.nanoTime() );
+		return intervals;
+	}
+
+	/**
+	 * merge what every user recorded since the last sample into a new
+	 * interval.
+	 *
+	 * @param end
+	 */
+	private void sample(final long end) {
+		final long from = intervals.isEmpty() ? start : intervals.get( intervals.size() - 1 ).end;
+		final LatencyHistogram merged = new LatencyHistogram();
+		for( final LatencyHistogram user : users ) {
+			merged.add( user.copyAndReset() );
+		}
+		final long gc = getGcMillis();
+		intervals.add( new Interval( from - start, end, end - from, merged, gc - gcAtStart ) );
+		gcAtStart = gc;
+	}
+
+	/**
+	 * @return total collection time of every garbage collector, in millis
+	 */
+	private long getGcMillis() {
+		long total = 0;
+		for( final GarbageCollectorMXBean collector : collectors ) {
+			total += Math.max( 0, collector.getCollectionTime() );
+		}
+		return total;
+	}
+
+	/**
+	 * write the interval log and csv for a phase, and report the slowest
+	 * interval.
+	 *
+	 * @param fixture
+	 * @param phase
+	 * @return message describing the files written
+	 * @throws IOException
+	 */
+	String write(final String fixture, final String phase) throws IOException {
+		final Path dir = Paths.get( System.getProperty( INTERVAL_DIR, "target/intervals" ) );
+		Files.createDirectories( dir );
+		final String name = String.format( "%s-%s", fixture, phase.replace( ' ', '-' ) );
+		final Path log = dir.resolve( name + ".ilog" );
+		final Path csv = dir.resolve( name + ".csv" );
+
+		final BufferedWriter logWriter = Files.newBufferedWriter( log, StandardCharsets.UTF_8 );
+		try {
+			logWriter.write( String.format( "# %s %s, intervals of %d ms%n", fixture, phase, intervalNanos / 1000000L ) );
+			logWriter.write( String.format( "# histograms are base64 of LatencyHistogram.encode, in nanoseconds%n" ) );
+			logWriter.write( String.format( "start_seconds,length_seconds,max_ms,histogram%n" ) );
+			for( final Interval interval : intervals ) {
+				logWriter.write( String.format( "%.3f,%.3f,%.3f,%s%n", interval.offset / 1e9d, interval.length / 1e9d,
+						interval.histogram.getMax() / 1e6d, Base64.getEncoder().encodeToString( interval.histogram.encode() ) ) );
+			}
+		} finally {
+			logWriter.close();
+		}
+
+		Interval slowest = null;
+		final BufferedWriter csvWriter = Files.newBufferedWriter( csv, StandardCharsets.UTF_8 );
+		try {
+			csvWriter.write( String.format( "seconds,calls,calls_per_second,p50_ms,p90_ms,p99_ms,max_ms,gc_ms%n" ) );
+			for( final Interval interval : intervals ) {
+				final LatencyHistogram h = interval.histogram;
+				csvWriter.write( String.format( "%.3f,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%d%n", interval.offset / 1e9d, h.getTotalCount(),
+						interval.length > 0 ? h.getTotalCount() * 1e9d / interval.length : 0d,
+						h.getValueAtPercentile( 0.5d ) / 1e6d, h.getValueAtPercentile( 0.9d ) / 1e6d,
+						h.getValueAtPercentile( 0.99d ) / 1e6d, h.getMax() / 1e6d, interval.gcMillis ) );
+				if( (h.getTotalCount() > 0) && ((slowest == null)
+						|| (h.getValueAtPercentile( 0.99d ) > slowest.histogram.getValueAtPercentile( 0.99d ))) ) {
+					slowest = interval;
+				}
+			}
+		} finally {
+			csvWriter.close();
+		}
+
+		final StringBuilder message = new StringBuilder( String.format( INTERVALS_WRITTEN, intervals.size(), intervalNanos / 1000000L, log, csv ) );
+		if( slowest != null ) {
+			message.append( String.format( "%n" ) ).append( String.format( SLOWEST_INTERVAL, slowest.offset / 1e9d,
+					slowest.histogram.getValueAtPercentile( 0.99d ) / 1e6d, slowest.histogram.getTotalCount(), slowest.gcMillis ) );
+		}
+		return message.toString();
+	}
+
+	/**
+	 * latencies recorded during one interval
+	 */
+	static final class Interval {
+		final long offset;
+		final long end;
+		final long length;
+		final LatencyHistogram histogram;
+		final long gcMillis;
+
+		Interval(final long offset, final long end, final long length, final LatencyHistogram histogram, final long gcMillis) {
+			this.offset = offset;
+			this.end = end;
+			this.length = length;
+			this.histogram = histogram;
+			this.gcMillis = gcMillis;
+		}
+	}
+}
@@ -1,6 +1,9 @@
 package test;
 
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 
 /**
  * @author patrick
@@ -16,6 +19,54 @@ public class JunitWrapper implements TestFixture {
 	 * 
 	 */
 	private final AtomicInteger assertionCounter = new AtomicInteger();
+
+	/*
+	 * ASSERTION SAMPLING
+	 * when sampling is enabled only every nth assertion, or a random fraction of
+	 * assertions, is actually evaluated. the rest are counted as skipped.
+	 */
+	private final AtomicInteger skippedCounter = new AtomicInteger();
+	private final AtomicLong sampleCounter = new AtomicLong();
+	private volatile int sampleInterval = 1;
+	private volatile double sampleRate = 1d;
+
+	/**
+	 * enable assertion sampling.
+	 * 
+	 * @param interval evaluate every nth assertion. values less than 2 evaluate all of them.
+	 * @param rate fraction of assertions to evaluate, between 0 and 1.
+	 */
+	public final void setSampling(int interval, double rate) {
+		sampleCounter.set( 0 );
+		sampleInterval = Math.max( 1, interval );
+		sampleRate = Math.max( 0d, Math.min( 1d, rate ) );
+	}
+
+	/**
+	 * evaluate every assertion again.
+	 */
+	public final void disableSampling() {
+		setSampling( 1, 1d );
+	}
+
+	/**
+	 * decide if the current assertion should be skipped. skipped assertions are counted.
+	 * 
+	 * @return <code>true</code> if the assertion should not be evaluated
+	 */
+	private boolean skip() {
+		final int interval = sampleInterval;
+		final double rate = sampleRate;
+		if( (interval == 1) && (rate >= 1d) ) {
+			return false;
+		}
+		if( ((interval > 1) && ((sampleCounter.incrementAndGet() % interval) != 0)) ||
+				((rate < 1d) && (ThreadLocalRandom.current().nextDouble() >= rate)) ) {
+			skippedCounter.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
 	
 	
 	/**
@@ -23,6 +74,9 @@ public class JunitWrapper implements TestFixture {
 	 * @param condition
 	 */
 	public final void assertFalse(String message, boolean condition) {
+		if( skip() ) {
+			return;
+		}
 		assertionCounter.incrementAndGet();
 		org.junit.Assert.assertFalse(message, condition);		
 	}
@@ -32,15 +86,51 @@ public class JunitWrapper implements TestFixture {
 	 * @param condition
 	 */
 	public final void assertTrue(String message, boolean condition) {
+		if( skip() ) {
+			return;
+		}
 		assertionCounter.incrementAndGet();
 		org.junit.Assert.assertTrue(message, condition);		
 	}
 
+	/**
+	 * the condition is only evaluated when sampling does not skip the
+	 * assertion, so use this form for conditions that are expensive to check.
+	 * 
+	 * @param message
+	 * @param condition
+	 */
+	public final void assertFalse(String message, BooleanSupplier condition) {
+		if( skip() ) {
+			return;
+		}
+		assertionCounter.incrementAndGet();
+		org.junit.Assert.assertFalse(message, condition.getAsBoolean());
+	}
+
+	/**
+	 * the condition is only evaluated when sampling does not skip the
+	 * assertion, so use this form for conditions that are expensive to check.
+	 * 
+	 * @param message
+	 * @param condition
+	 */
+	public final void assertTrue(String message, BooleanSupplier condition) {
+		if( skip() ) {
+			return;
+		}
+		assertionCounter.incrementAndGet();
+		org.junit.Assert.assertTrue(message, condition.getAsBoolean());
+	}
+
 	/**
 	 * @param message
 	 * @param object
 	 */
 	public final void assertNotNull(String message, Object object) {
+		if( skip() ) {
+			return;
+		}
 		assertionCounter.incrementAndGet();
 		org.junit.Assert.assertNotNull(message, object);
 	}
@@ -50,6 +140,9 @@ public class JunitWrapper implements TestFixture {
 	 * @param object
 	 */
 	public final void assertNull(String message, Object object) {
+		if( skip() ) {
+			return;
+		}
 		assertionCounter.incrementAndGet();
 		org.junit.Assert.assertNull(message, object);
 	}
@@ -60,6 +153,9 @@ public class JunitWrapper implements TestFixture {
 	 * @param actual
 	 */
 	public final void assertEquals(String message, Object expected, Object actual) {
+		if( skip() ) {
+			return;
+		}
 		assertionCounter.incrementAndGet();
 		org.junit.Assert.assertEquals(message, expected, actual);
 	}
@@ -70,6 +166,9 @@ public class JunitWrapper implements TestFixture {
 	 * @param tolerance 
 	 */
 	public final void assertEquals(String message, double expected, double actual, double tolerance) {
+		if( skip() ) {
+			return;
+		}
 		assertionCounter.incrementAndGet();
 		org.junit.Assert.assertEquals(message, expected, actual, tolerance);
 	}
@@ -80,6 +179,9 @@ public class JunitWrapper implements TestFixture {
 	 * @param actual
 	 */
 	public final void assertSame(String message, Object expected, Object actual) {
+		if( skip() ) {
+			return;
+		}
 		assertionCounter.incrementAndGet();
 		org.junit.Assert.assertSame(message, expected, actual);
 	}
@@ -89,6 +191,9 @@ public class JunitWrapper implements TestFixture {
 	 * @param actual
 	 */
 	protected final void assertNotSame(String message, Object unexpected, Object actual) {
+		if( skip() ) {
+			return;
+		}
 		assertionCounter.incrementAndGet();
 		org.junit.Assert.assertNotSame(message, unexpected, actual);
 	}
@@ -112,11 +217,19 @@ public class JunitWrapper implements TestFixture {
 		return assertionCounter.get();
 	}
 
+	/**
+	 * @return number of assertions skipped by sampling
+	 */
+	public final int getSkippedAssertionCount() {
+		return skippedCounter.get();
+	}
+
 	/**
 	 * 
 	 */
 	public final void resetAssertionCounter() {
 		assertionCounter.set( 0 );
+		skippedCounter.set( 0 );
 	}
 	
 }
@@ -0,0 +1,265 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * fixed size histogram of latencies in nanoseconds. values are kept in 32
+ * buckets per power of two, so percentiles are accurate to about 3% at any
+ * scale. recording is lock free and never allocates.
+ *
+ * @author patrick
+ *
+ */
+public final class LatencyHistogram implements TestFixture {
+
+	// buckets per power of two, and the values below which every value has its own bucket
+	private static final int SUB_BUCKETS = 32;
+	private static final int LINEAR = 2 * SUB_BUCKETS;
+	private static final int SIZE = LINEAR + 57 * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray( SIZE );
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos
+	 */
+	public void record(final long nanos) {
+		final long value = Math.max( 0, nanos );
+		counts.incrementAndGet( indexOf( value ) );
+		total.incrementAndGet();
+		long current = max.get();
+		while( (value > current) && !max.compareAndSet( current, value ) ) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * record a value into a histogram that only the current thread records
+	 * into. cheaper than <code>record</code>, since there is no other writer
+	 * to make the updates atomic against, while readers on other threads
+	 * still see them.
+	 *
+	 * @param nanos
+	 */
+	void recordByOwner(final long nanos) {
+		final long value = Math.max( 0, nanos );
+		final int index = indexOf( value );
+		counts.lazySet( index, counts.get( index ) + 1 );
+		total.lazySet( total.get() + 1 );
+		if( value > max.get() ) {
+			max.lazySet( value );
+		}
+	}
+
+	/**
+	 * @return number of values recorded
+	 */
+	public long getTotalCount() {
+		return total.get();
+	}
+
+	/**
+	 * @return largest value recorded, in nanos
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param p percentile between 0 and 1
+	 * @return the value at that percentile, in nanos, or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(final double p) {
+		final long count = total.get();
+		if( count == 0 ) {
+			return 0;
+		}
+		final long rank = Math.max( 1, (long) Math.ceil( p * count ) );
+		long seen = 0;
+		for( int i=0;i<SIZE;i++ ) {
+			seen += counts.get( i );
+			if( seen >= rank ) {
+				return Math.min( max.get(), highestValueOf( i ) );
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * add the values of another histogram to this one
+	 *
+	 * @param other
+	 */
+	public void add(final LatencyHistogram other) {
+		for( int i=0;i<SIZE;i++ ) {
+			final long n = other.counts.get( i );
+			if( n != 0 ) {
+				counts.addAndGet( i, n );
+			}
+		}
+		total.addAndGet( other.total.get() );
+		long current = max.get();
+		while( (other.max.get() > current) && !max.compareAndSet( current, other.max.get() ) ) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * move the values recorded so far into a new histogram and start over.
+	 * values recorded while this runs may land in either histogram.
+	 *
+	 * @return histogram with the values recorded so far
+	 */
+	public LatencyHistogram copyAndReset() {
+		final LatencyHistogram copy = new LatencyHistogram();
+		for( int i=0;i<SIZE;i++ ) {
+			final long n = counts.getAndSet( i, 0 );
+			if( n != 0 ) {
+				copy.counts.set( i, n );
+				copy.total.addAndGet( n );
+			}
+		}
+		total.addAndGet( -copy.total.get() );
+		copy.max.set( max.getAndSet( 0 ) );
+		return copy;
+	}
+
+	/**
+	 * forget every value recorded
+	 */
+	public void reset() {
+		for( int i=0;i<SIZE;i++ ) {
+			counts.set( i, 0 );
+		}
+		total.set( 0 );
+		max.set( 0 );
+	}
+
+	/**
+	 * encode the histogram compactly: the max, then the gap to and count of
+	 * each bucket in use as variable length integers, deflated.
+	 *
+	 * @return encoded histogram
+	 */
+	public byte[] encode() {
+		final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		writeVarLong( raw, max.get() );
+		int previous = -1;
+		for( int i=0;i<SIZE;i++ ) {
+			final long n = counts.get( i );
+			if( n != 0 ) {
+				writeVarLong( raw, i - previous );
+				writeVarLong( raw, n );
+				previous = i;
+			}
+		}
+		final Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION );
+		try {
+			deflater.setInput( raw.toByteArray() );
+			deflater.finish();
+			final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[1024];
+			while( !deflater.finished() ) {
+				encoded.write( buffer, 0, deflater.deflate( buffer ) );
+			}
+			return encoded.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @param encoded value returned by <code>encode</code>
+	 * @return the histogram
+	 * @throws DataFormatException
+	 */
+	public static LatencyHistogram decode(final byte[] encoded) throws DataFormatException {
+		final Inflater inflater = new Inflater();
+		final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		try {
+			inflater.setInput( encoded );
+			final byte[] buffer = new byte[1024];
+			while( !inflater.finished() ) {
+				final int n = inflater.inflate( buffer );
+				if( (n == 0) && inflater.needsInput() ) {
+					throw new DataFormatException( "truncated histogram" );
+				}
+				raw.write( buffer, 0, n );
+			}
+		} finally {
+			inflater.end();
+		}
+		final byte[] bytes = raw.toByteArray();
+		final int[] position = { 0 };
+		final LatencyHistogram histogram = new LatencyHistogram();
+		histogram.max.set( readVarLong( bytes, position ) );
+		int index = -1;
+		while( position[0] < bytes.length ) {
+			index += (int) readVarLong( bytes, position );
+			final long n = readVarLong( bytes, position );
+			histogram.counts.set( index, n );
+			histogram.total.addAndGet( n );
+		}
+		return histogram;
+	}
+
+	/**
+	 * @param out
+	 * @param value not negative
+	 */
+	private static void writeVarLong(final ByteArrayOutputStream out, final long value) {
+		long v = value;
+		while( (v & ~0x7fL) != 0 ) {
+			out.write( (int) ((v & 0x7f) | 0x80) );
+			v >>>= 7;
+		}
+		out.write( (int) v );
+	}
+
+	/**
+	 * @param bytes
+	 * @param position read position, moved past the value
+	 * @return the value
+	 */
+	private static long readVarLong(final byte[] bytes, final int[] position) {
+		long value = 0;
+		for( int shift=0;;shift+=7 ) {
+			final int b = bytes[position[0]++];
+			value |= (long) (b & 0x7f) << shift;
+			if( (b & 0x80) == 0 ) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return bucket holding the value
+	 */
+	static int indexOf(final long value) {
+		if( value < LINEAR ) {
+			return (int) value;
+		}
+		final int shift = 63 - Long.numberOfLeadingZeros( value ) - 5;
+		return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @param index
+	 * @return largest value that falls in the bucket
+	 */
+	static long highestValueOf(final int index) {
+		if( index < LINEAR ) {
+			return index;
+		}
+		final int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		final long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
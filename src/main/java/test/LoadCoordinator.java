@@ -0,0 +1,338 @@
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * runs the users of a thread safety test in several worker jvms on this
+ * machine, so that the load is not limited by the gc and allocation rate of a
+ * single load generator. the coordinator listens on a loopback socket,
+ * starts the workers and waits until every one of them has loaded the
+ * fixture, then tells them all to start at once. each worker runs its share
+ * of the users and sends back its latency histogram and counters, which the
+ * coordinator merges into one result. a worker that does not report within the
+ * phase timeout, or does not exit once it has reported, is killed.
+ *
+ * @author patrick
+ *
+ */
+final class LoadCoordinator implements TestFixture {
+
+	static final String WORKER_REPORT = "worker %d: %d users, %d calls in %.2f seconds, %.2f calls per second, p99 %.3f ms.";
+	static final String MERGED_REPORT = "%d worker processes ran %d users: %d calls in %.2f seconds, %.2f calls per second, p50 %.3f ms, p99 %.3f ms, max %.3f ms.";
+	static final String WORKER_FAILED = "worker %d failed: %s";
+	static final String WORKER_LOST = "worker %d exited before reporting its result (exit code %s).";
+	static final String WORKER_TIMED_OUT = "worker %d did not report its result within %d seconds and was killed.";
+
+	// how long workers have to connect and load the fixture, in millis
+	private static final int READY_TIMEOUT = 60000;
+
+	// how long workers have to exit once they reported, in seconds
+	private static final long EXIT_TIMEOUT = 10;
+
+	// hide constructor
+	private LoadCoordinator(){}
+
+	/**
+	 * run the users in worker jvms and merge their results.
+	 *
+	 * @param fixture
+	 * @param workers number of worker jvms
+	 * @param users total number of users
+	 * @param jvmArgs extra arguments for the worker jvms, may be empty
+	 * @param timeout seconds the workers have to run their users and report,
+	 *        0 to wait as long as they are alive
+	 * @return the merged result
+	 * @throws Exception
+	 */
+	static Result run(final Class<?> fixture, final int workers, final int users, final List<String> jvmArgs,
+			final long timeout) throws Exception {
+		final int n = Math.max( 1, Math.min( workers, users ) );
+		final ServerSocket server = new ServerSocket( 0, n, InetAddress.getLoopbackAddress() );
+		final List<Process> processes = new ArrayList<Process>( n );
+		final Socket[] sockets = new Socket[n];
+		final Result result = new Result( n, users );
+		try {
+			server.setSoTimeout( READY_TIMEOUT );
+			for( int i=0;i<n;i++ ) {
+				processes.add( start( fixture, server.getLocalPort(), i, share( users, n, i ), jvmArgs ) );
+			}
+
+			// wait until every worker is ready
+			for( int i=0;i<n;i++ ) {
+				final Socket socket = server.accept();
+				final int index = new DataInputStream( socket.getInputStream() ).readInt();
+				sockets[index] = socket;
+			}
+
+			// start them together and collect their results
+			final long start = System.nanoTime();
+			for( final Socket socket : sockets ) {
+				socket.getOutputStream().write( 1 );
+				socket.getOutputStream().flush();
+			}
+			final long deadline = start + TimeUnit.SECONDS.toNanos( timeout );
+			for( int i=0;i<n;i++ ) {
+				final DataInputStream in = new DataInputStream( new BufferedInputStream( sockets[i].getInputStream() ) );
+				try {
+					if( timeout > 0 ) {
+						sockets[i].setSoTimeout( (int) Math.max( 1, Math.min( Integer.MAX_VALUE,
+								TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() ) ) ) );
+					}
+					if( in.readBoolean() ) {
+						final long calls = in.readLong();
+						final long wall = in.readLong();
+						final long cpu = in.readLong();
+						final long allocated = in.readLong();
+						final LatencyHistogram histogram = LatencyHistogram.decode( readBytes( in ) );
+						result.add( i, share( users, n, i ), calls, wall, cpu, allocated, histogram );
+					} else {
+						result.failures.add( String.format( WORKER_FAILED, i, new String( readBytes( in ), StandardCharsets.UTF_8 ) ) );
+					}
+				} catch( final SocketTimeoutException e ) {
+					processes.get( i ).destroyForcibly();
+					result.failures.add( String.format( WORKER_TIMED_OUT, i, timeout ) );
+				} catch( final IOException e ) {
+					final Process process = processes.get( i );
+					result.failures.add( String.format( WORKER_LOST, i, process.isAlive() ? "still running" : Integer.toString( process.exitValue() ) ) );
+				}
+			}
+			result.wallNanos = System.nanoTime() - start;
+		} finally {
+			for( final Socket socket : sockets ) {
+				if( socket != null ) {
+					socket.close();
+				}
+			}
+			server.close();
+			// the workers exit on their own once their socket is closed
+			final long exit = System.nanoTime() + TimeUnit.SECONDS.toNanos( EXIT_TIMEOUT );
+			for( final Process process : processes ) {
+				if( !process.waitFor( Math.max( 0, exit - System.nanoTime() ), TimeUnit.NANOSECONDS ) ) {
+					process.destroyForcibly().waitFor( EXIT_TIMEOUT, TimeUnit.SECONDS );
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param users
+	 * @param workers
+	 * @param worker
+	 * @return number of users for the worker
+	 */
+	private static int share(final int users, final int workers, final int worker) {
+		return users / workers + (worker < users % workers ? 1 : 0);
+	}
+
+	/**
+	 * start a worker jvm with the same class path and harness settings.
+	 *
+	 * @param fixture
+	 * @param port
+	 * @param index
+	 * @param users
+	 * @param jvmArgs
+	 * @return the process
+	 * @throws IOException
+	 */
+	private static Process start(final Class<?> fixture, final int port, final int index, final int users,
+			final List<String> jvmArgs) throws IOException {
+		final List<String> command = javaCommand( jvmArgs );
+		command.add( LoadCoordinator.class.getName() );
+		command.add( fixture.getName() );
+		command.add( Integer.toString( port ) );
+		command.add( Integer.toString( index ) );
+		command.add( Integer.toString( users ) );
+		final ProcessBuilder builder = new ProcessBuilder( command );
+		builder.redirectErrorStream( true );
+		builder.redirectOutput( ProcessBuilder.Redirect.INHERIT );
+		return builder.start();
+	}
+
+	/**
+	 * the command to start another jvm configured like this one: the same
+	 * class path, heap and <code>-XX</code> settings, assertions and
+	 * <code>test.harness.*</code> system properties. the main class and its
+	 * arguments still have to be added.
+	 *
+	 * @param jvmArgs extra arguments, they come after the inherited ones so they win
+	 * @return the command
+	 */
+	static List<String> javaCommand(final List<String> jvmArgs) {
+		final List<String> command = new ArrayList<String>();
+		command.add( System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java" );
+		for( final String argument : ManagementFactory.getRuntimeMXBean().getInputArguments() ) {
+			if( argument.startsWith( "-Xm" ) || argument.startsWith( "-Xss" ) || argument.startsWith( "-XX:" ) ) {
+				command.add( argument );
+			}
+		}
+		command.addAll( jvmArgs );
+		if( assertions.Assert.isEnabled() ) {
+			command.add( "-ea" );
+		}
+		for( final Entry<Object, Object> property : System.getProperties().entrySet() ) {
+			if( property.getKey().toString().startsWith( "test.harness." ) && !property.getKey().equals( HarnessMetrics.METRICS_PORT ) ) {
+				command.add( String.format( "-D%s=%s", property.getKey(), property.getValue() ) );
+			}
+		}
+		command.add( "-cp" );
+		command.add( System.getProperty( "java.class.path" ) );
+		return command;
+	}
+
+	/**
+	 * @param in
+	 * @return a length prefixed byte array
+	 * @throws IOException
+	 */
+	private static byte[] readBytes(final DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully( bytes );
+		return bytes;
+	}
+
+	/**
+	 * @param out
+	 * @param bytes written with their length first
+	 * @throws IOException
+	 */
+	private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+		out.writeInt( bytes.length );
+		out.write( bytes );
+	}
+
+	/**
+	 * entry point of a worker jvm. arguments are the fixture class, the port
+	 * of the coordinator, the index of the worker and its number of users.
+	 * the fixture is set up and torn down with its junit lifecycle methods.
+	 * the worker exits with 0 only when its users ran without failing.
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		final Socket socket = new Socket( InetAddress.getLoopbackAddress(), Integer.parseInt( args[1] ) );
+		final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+		int status = 1;
+		BaseTestCase<?, ?> fixture = null;
+		try {
+			// a fixture that can't be set up still reports, as a failure
+			Callable<String> users = null;
+			Throwable failure = null;
+			try {
+				fixture = FixtureLifecycle.setUp( Class.forName( args[0] ) );
+				users = fixture.prepareLoadWorker( Integer.parseInt( args[3] ) );
+			} catch( final Throwable e ) {
+				failure = e;
+			}
+			out.writeInt( Integer.parseInt( args[2] ) );
+			out.flush();
+
+			// wait for the signal to start
+			if( socket.getInputStream().read() < 0 ) {
+				return;
+			}
+			final long start = System.nanoTime();
+			try {
+				if( failure != null ) {
+					throw failure;
+				}
+				users.call();
+				final long wall = System.nanoTime() - start;
+				final HarnessMetrics metrics = HarnessMetrics.get();
+				out.writeBoolean( true );
+				out.writeLong( metrics.getCompletedOperations() );
+				out.writeLong( wall );
+				out.writeLong( (long) (metrics.getCpuTimeMillis() * 1e6d) );
+				out.writeLong( metrics.getAllocatedBytes() );
+				writeBytes( out, metrics.getPhaseLatencies().encode() );
+				status = 0;
+			} catch( final Throwable e ) {
+				out.writeBoolean( false );
+				writeBytes( out, String.valueOf( e.getMessage() != null ? e.getMessage() : e ).getBytes( StandardCharsets.UTF_8 ) );
+			}
+			out.flush();
+		} finally {
+			socket.close();
+			try {
+				if( fixture != null ) {
+					FixtureLifecycle.tearDown( fixture );
+				}
+			} finally {
+				EventLog.flush();
+				System.exit( status );
+			}
+		}
+	}
+
+	/**
+	 * merged result of the workers
+	 */
+	static final class Result {
+		final int workers;
+		final int users;
+		final LatencyHistogram latencies = new LatencyHistogram();
+		final List<String> workerReports = new ArrayList<String>();
+		final List<String> failures = new ArrayList<String>();
+		long calls = 0;
+		long cpuNanos = 0;
+		long allocatedBytes = 0;
+		long wallNanos = 0;
+
+		Result(final int workers, final int users) {
+			this.workers = workers;
+			this.users = users;
+		}
+
+		/**
+		 * add the result of one worker
+		 */
+		void add(final int worker, final int workerUsers, final long workerCalls, final long wall, final long cpu,
+				final long allocated, final LatencyHistogram histogram) {
+			calls += workerCalls;
+			cpuNanos += cpu;
+			allocatedBytes = (allocated < 0) || (allocatedBytes < 0) ? -1 : allocatedBytes + allocated;
+			latencies.add( histogram );
+			workerReports.add( String.format( WORKER_REPORT, worker, workerUsers, workerCalls, wall / 1e9d,
+					wall > 0 ? workerCalls * 1e9d / wall : 0d, histogram.getValueAtPercentile( 0.99d ) / 1e6d ) );
+		}
+
+		/**
+		 * @return calls per second over all the workers
+		 */
+		double getThroughput() {
+			return wallNanos > 0 ? calls * 1e9d / wallNanos : 0d;
+		}
+
+		/**
+		 * @return one line per worker, then the merged result
+		 */
+		String report() {
+			final StringBuilder report = new StringBuilder();
+			for( final String line : workerReports ) {
+				report.append( line ).append( String.format( "%n" ) );
+			}
+			report.append( String.format( MERGED_REPORT, workers, users, calls, wallNanos / 1e9d, getThroughput(),
+					latencies.getValueAtPercentile( 0.5d ) / 1e6d, latencies.getValueAtPercentile( 0.99d ) / 1e6d,
+					latencies.getMax() / 1e6d ) );
+			return report.toString();
+		}
+	}
+}
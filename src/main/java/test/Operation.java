@@ -0,0 +1,27 @@
+package test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * marks a fixture method as one of the operations of a mixed workload. an
+ * operation takes the same parameters as <code>verifyFunctionality</code>:
+ * the parameter map, the component under test, a test data item and the
+ * counter for the user. when a fixture declares operations, the performance
+ * and thread safety tests run them instead of
+ * <code>verifyFunctionality</code>, in proportion to their weights.
+ *
+ * @author patrick
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Operation {
+
+	/**
+	 * @return share of the calls that run this operation, relative to the other operations
+	 */
+	double weight() default 1;
+}
@@ -0,0 +1,25 @@
+package test;
+
+/**
+ * how a fixture classifies an outcome observed during the stress test.
+ *
+ * @author patrick
+ *
+ */
+public enum Outcome {
+
+	/**
+	 * expected result of some interleaving
+	 */
+	ACCEPTABLE,
+
+	/**
+	 * allowed, but worth reporting, for example a race the component tolerates
+	 */
+	INTERESTING,
+
+	/**
+	 * must never happen. the stress test fails if it is observed.
+	 */
+	FORBIDDEN
+}
@@ -0,0 +1,49 @@
+package test;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * declares the performance budget of a fixture. the performance and thread
+ * safety tests fail when the component does not stay within it. a budget set
+ * in the parameter map of a phase overrides the one declared here, and
+ * negative values mean no budget.
+ *
+ * latency and throughput budgets are scaled by the speed of the machine, see
+ * <code>Calibration</code>. the speed is measured when the tests start, and a
+ * busy host measures slow, which loosens the budgets. on ci, pin it with the
+ * <code>test.harness.calibration.factor</code> system property, measured
+ * once on an idle host with <code>java test.Calibration</code>.
+ *
+ * @author patrick
+ *
+ */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface PerformanceBudget {
+
+	/**
+	 * @return max 99th percentile latency of a call, in milliseconds
+	 */
+	double maxP99Millis() default -1;
+
+	/**
+	 * @return min calls per second
+	 */
+	double minOpsPerSecond() default -1;
+
+	/**
+	 * @return max bytes allocated per call
+	 */
+	long maxBytesPerOperation() default -1;
+
+	/**
+	 * @return min throughput of the thread safety test, as a fraction of the
+	 * single user throughput times the number of users
+	 */
+	double minScalingEfficiency() default -1;
+}
@@ -0,0 +1,236 @@
+package test;
+
+import static test.utilities.Utilities.getBytecodeHash;
+import static test.utilities.Utilities.hasBytecode;
+import static test.utilities.Utilities.toHex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * remembers the measurements of the last full run of a fixture, so that an
+ * unchanged fixture does not have to be measured again on every build.
+ *
+ * a result is reused when its fingerprint matches: the bytecode of the
+ * fixture class, the component class and their superclasses, the parameters
+ * of every phase and the jvm version. it also has to be recent enough, and a
+ * full run is forced after it has been reused a number of times. only
+ * parameters that are plain values can be fingerprinted, so results are not
+ * cached when a parameter is anything else, nor when the bytecode of one of
+ * the classes can't be read, as a change to it would go unnoticed.
+ *
+ * @author patrick
+ *
+ */
+final class ResultCache implements TestFixture {
+
+	/**
+	 * system property that turns the cache on for every fixture.
+	 */
+	static final String RESULT_CACHE = "test.harness.result.cache";
+
+	/**
+	 * system property with the folder to keep results in.
+	 */
+	static final String RESULT_DIR = "test.harness.result.dir";
+
+	/**
+	 * system property that forces a full run of every fixture.
+	 */
+	static final String FULL_RUN = "test.harness.full.run";
+
+	static final String REUSED = "reusing the result measured %s for '%s', unchanged since then (reuse %d of %d):";
+	static final String MEASUREMENT = "  %s = %s";
+	static final String SAVED = "saved the result for '%s' with fingerprint %s.";
+	static final String NOT_CACHED = "not caching the result for '%s': parameter '%s' is a %s, which can't be fingerprinted.";
+	static final String NO_BYTECODE = "not caching the result for '%s': the bytecode of '%s' can't be read, so changes to it would go unnoticed.";
+
+	private static final String FINGERPRINT = "fingerprint";
+	private static final String MEASURED = "measured";
+	private static final String REUSES = "reuses";
+
+	private final Path file;
+	private final String fingerprint;
+	private final Properties result = new Properties();
+	private final Properties previous = new Properties();
+
+	/**
+	 * @param fixture
+	 * @param component class of the component under test
+	 * @param params parameter maps of the phases, with what changes from run
+	 *        to run removed, holding only plain values
+	 * @throws IOException
+	 */
+	@SafeVarargs
+	ResultCache(final Class<?> fixture, final Class<?> component, final Map<String, ?>... params) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance( "SHA-1" );
+		} catch( final Exception e ) {
+			throw new IOException( e );
+		}
+		for( final Class<?> type : new Class<?>[] { fixture, component } ) {
+			for( Class<?> superclass = type;(superclass != null) && (superclass != Object.class);superclass = superclass.getSuperclass() ) {
+				digest.update( getBytecodeHash( superclass ).getBytes( StandardCharsets.UTF_8 ) );
+			}
+			digest.update( (byte) '|' );
+		}
+		for( final Map<String, ?> phase : params ) {
+			for( final Entry<String, ?> entry : new TreeMap<String, Object>( phase ).entrySet() ) {
+				digest.update( String.format( "%s=%s;", entry.getKey(), entry.getValue() ).getBytes( StandardCharsets.UTF_8 ) );
+			}
+			digest.update( (byte) '|' );
+		}
+		digest.update( String.format( "%s %s %s", System.getProperty( "java.vm.name" ), System.getProperty( "java.vm.version" ),
+				System.getProperty( "java.version" ) ).getBytes( StandardCharsets.UTF_8 ) );
+		fingerprint = toHex( digest.digest() ).substring( 0, 16 );
+
+		file = Paths.get( System.getProperty( RESULT_DIR, "target/results" ), fixture.getName() + ".result" );
+		if( Files.isRegularFile( file ) ) {
+			final InputStream in = Files.newInputStream( file );
+			try {
+				previous.load( in );
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * @param params parameter maps of the phases
+	 * @return the name and value of the first parameter that is not a plain
+	 *         value, or <code>null</code> if every one is
+	 */
+	@SafeVarargs
+	static Entry<String, ?> findUnsupported(final Map<String, ?>... params) {
+		for( final Map<String, ?> phase : params ) {
+			for( final Entry<String, ?> entry : new TreeMap<String, Object>( phase ).entrySet() ) {
+				if( !SnapshotStore.isValue( entry.getValue() ) ) {
+					return entry;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param types classes to fingerprint, with their superclasses
+	 * @return the first of the classes or their superclasses whose bytecode
+	 *         can't be read, or <code>null</code> if every one can be
+	 * @throws IOException
+	 */
+	static Class<?> findUnreadable(final Class<?>... types) throws IOException {
+		for( final Class<?> type : types ) {
+			for( Class<?> superclass = type;(superclass != null) && (superclass != Object.class);superclass = superclass.getSuperclass() ) {
+				if( !hasBytecode( superclass ) ) {
+					return superclass;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param maxAgeHours
+	 * @param fullRunEvery number of times a result may be reused before a full run is forced
+	 * @return <code>true</code> if the previous result can be reused
+	 */
+	boolean isReusable(final double maxAgeHours, final int fullRunEvery) {
+		if( Boolean.getBoolean( FULL_RUN ) || !fingerprint.equals( previous.getProperty( FINGERPRINT ) ) ) {
+			return false;
+		}
+		final long measured = Long.parseLong( previous.getProperty( MEASURED, "0" ) );
+		final int reuses = Integer.parseInt( previous.getProperty( REUSES, "0" ) );
+		return (System.currentTimeMillis() - measured <= maxAgeHours * 3600000d) && (reuses < fullRunEvery);
+	}
+
+	/**
+	 * count one more reuse of the previous result.
+	 *
+	 * @param fixture
+	 * @param fullRunEvery
+	 * @return the previous measurements, for the report
+	 * @throws IOException
+	 */
+	String reuse(final String fixture, final int fullRunEvery) throws IOException {
+		final int reuses = Integer.parseInt( previous.getProperty( REUSES, "0" ) ) + 1;
+		previous.setProperty( REUSES, Integer.toString( reuses ) );
+		write( previous );
+		final StringBuilder report = new StringBuilder( String.format( REUSED,
+				new Date( Long.parseLong( previous.getProperty( MEASURED ) ) ), fixture, reuses, fullRunEvery ) );
+		for( final Entry<String, String> measurement : toMap( previous ).entrySet() ) {
+			if( !measurement.getKey().equals( FINGERPRINT ) && !measurement.getKey().equals( MEASURED )
+					&& !measurement.getKey().equals( REUSES ) ) {
+				report.append( String.format( "%n" ) ).append( String.format( MEASUREMENT, measurement.getKey(), measurement.getValue() ) );
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * add a measurement to the result of this run
+	 *
+	 * @param name
+	 * @param value
+	 */
+	void put(final String name, final double value) {
+		result.setProperty( name, String.format( "%.3f", value ) );
+	}
+
+	/**
+	 * save the result of this run, a full run that passed.
+	 *
+	 * @param fixture
+	 * @return message for the report
+	 * @throws IOException
+	 */
+	String save(final String fixture) throws IOException {
+		result.setProperty( FINGERPRINT, fingerprint );
+		result.setProperty( MEASURED, Long.toString( System.currentTimeMillis() ) );
+		result.setProperty( REUSES, "0" );
+		write( result );
+		return String.format( SAVED, fixture, fingerprint );
+	}
+
+	/**
+	 * write the properties to a temporary file, then move it in place.
+	 *
+	 * @param properties
+	 * @throws IOException
+	 */
+	private void write(final Properties properties) throws IOException {
+		Files.createDirectories( file.getParent() );
+		final Path temp = Files.createTempFile( file.getParent(), file.getFileName().toString(), ".tmp" );
+		final OutputStream out = Files.newOutputStream( temp );
+		try {
+			properties.store( out, "harness result" );
+		} finally {
+			out.close();
+		}
+		Files.move( temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	/**
+	 * @param properties
+	 * @return the properties as a map of strings
+	 */
+	private static Map<String, String> toMap(final Properties properties) {
+		final Map<String, String> map = new TreeMap<String, String>();
+		for( final String name : properties.stringPropertyNames() ) {
+			map.put( name, properties.getProperty( name ) );
+		}
+		return map;
+	}
+}
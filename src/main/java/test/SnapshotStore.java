@@ -0,0 +1,248 @@
+package test;
+
+import static test.utilities.Utilities.getBytecodeHash;
+import static test.utilities.Utilities.toHex;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * keeps generated test data on disk between runs. the first run serializes
+ * the data into a snapshot file; later runs map the file into memory and read
+ * the data back instead of generating it again. each load returns a fresh
+ * copy, so fixtures can change the data they are given.
+ *
+ * snapshots are keyed by fixture, parameters and the bytecode of the fixture
+ * class and its superclasses, so changing a data generator declared in any
+ * of them invalidates them. changes to other classes the generator calls are
+ * not seen; change <code>SNAPSHOT_KEY</code> when one of those changes. a
+ * snapshot that can't be read back anymore, because one of those classes
+ * changed or the file is damaged, is deleted and generated again.
+ * parameters are only part of the key when they are plain values, whose
+ * text is the same from run to run.
+ *
+ * @author patrick
+ *
+ */
+final class SnapshotStore implements TestFixture {
+
+	/**
+	 * system property with the folder to keep snapshots in.
+	 */
+	static final String SNAPSHOT_DIR = "test.harness.snapshot.dir";
+
+	static final String SNAPSHOT_WRITTEN = "wrote test data snapshot '%s' (%d bytes).";
+	static final String NOT_A_VALUE = "parameter '%s' is a %s, which can't be part of a snapshot key; set the snapshot key parameter instead.";
+	static final String DISCARDED = "discarded test data snapshot '%s', it can't be read back: %s";
+	static final String NOT_SAVED = "test data of '%s' can't be kept in a snapshot, it is generated every time: %s";
+
+	// bytecode hash of each fixture class, computed once per jvm
+	private static final Map<Class<?>, String> hashes = new ConcurrentHashMap<Class<?>, String>();
+
+	// hide constructor
+	private SnapshotStore(){}
+
+	/**
+	 * load the test data from its snapshot, generating and saving it first if
+	 * there is no snapshot yet or it can't be read back. data that is not
+	 * serializable is simply generated.
+	 *
+	 * @param fixture
+	 * @param key parameters the data depends on
+	 * @param generator
+	 * @return the test data
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	static <D> D load(final Class<?> fixture, final Map<String, ?> key, final Callable<D> generator) throws Exception {
+		final Path file = getSnapshotFile( fixture, key );
+		if( Files.isRegularFile( file ) ) {
+			try {
+				return (D) read( file );
+			} catch( final ClassNotFoundException e ) {
+				discard( file, e );
+			} catch( final InvalidClassException e ) {
+				discard( file, e );
+			} catch( final StreamCorruptedException e ) {
+				discard( file, e );
+			} catch( final EOFException e ) {
+				discard( file, e );
+			}
+		}
+		final D data = generator.call();
+		if( !(data instanceof Serializable) || !save( file, data ) ) {
+			return data;
+		}
+		return (D) read( file );
+	}
+
+	/**
+	 * @param file
+	 * @return the object in the snapshot
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private static Object read(final Path file) throws IOException, ClassNotFoundException {
+		// the mapping is dropped once read, it is only kept for one load
+		final ObjectInputStream in = new ObjectInputStream( new ByteBufferInputStream( map( file ) ) );
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * delete a snapshot that can't be read back
+	 *
+	 * @param file
+	 * @param e why it can't be read
+	 * @throws IOException
+	 */
+	private static void discard(final Path file, final Exception e) throws IOException {
+		EventLog.log( DISCARDED, file, e );
+		Files.deleteIfExists( file );
+	}
+
+	/**
+	 * @param fixture
+	 * @param key
+	 * @return the file for the snapshot
+	 * @throws IOException
+	 */
+	static Path getSnapshotFile(final Class<?> fixture, final Map<String, ?> key) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance( "SHA-1" );
+		} catch( final Exception e ) {
+			throw new IOException( e );
+		}
+		for( Class<?> type = fixture;(type != null) && (type != Object.class);type = type.getSuperclass() ) {
+			String hash = hashes.get( type );
+			if( hash == null ) {
+				hash = getBytecodeHash( type );
+				hashes.put( type, hash );
+			}
+			digest.update( hash.getBytes( StandardCharsets.UTF_8 ) );
+		}
+		for( final Entry<String, ?> entry : new TreeMap<String, Object>( key ).entrySet() ) {
+			if( !isValue( entry.getValue() ) ) {
+				throw new IllegalArgumentException( String.format( NOT_A_VALUE, entry.getKey(),
+						entry.getValue().getClass().getName() ) );
+			}
+			digest.update( String.format( "%s=%s;", entry.getKey(), entry.getValue() ).getBytes( StandardCharsets.UTF_8 ) );
+		}
+		final String dir = System.getProperty( SNAPSHOT_DIR, "target/snapshots" );
+		return Paths.get( dir, String.format( "%s-%s.snapshot", fixture.getSimpleName(), toHex( digest.digest() ).substring( 0, 16 ) ) );
+	}
+
+	/**
+	 * @param value
+	 * @return <code>true</code> if the text of the value is the same in every
+	 *         run: strings, numbers, booleans, characters, enums and
+	 *         <code>null</code>
+	 */
+	static boolean isValue(final Object value) {
+		return (value == null) || (value instanceof String) || (value instanceof Number) || (value instanceof Boolean)
+				|| (value instanceof Character) || (value instanceof Enum);
+	}
+
+	/**
+	 * serialize the data to a temporary file, then move it in place so that
+	 * readers never see a partial snapshot. the temporary file is deleted if
+	 * the data can't be written.
+	 *
+	 * @param file
+	 * @param data
+	 * @return <code>false</code> if the data holds something that is not
+	 *         serializable
+	 * @throws IOException
+	 */
+	private static boolean save(final Path file, final Object data) throws IOException {
+		Files.createDirectories( file.getParent() );
+		final Path temp = Files.createTempFile( file.getParent(), file.getFileName().toString(), ".tmp" );
+		try {
+			final ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream( Files.newOutputStream( temp ), 1 << 16 ) );
+			try {
+				out.writeObject( data );
+			} finally {
+				out.close();
+			}
+			Files.move( temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		} catch( final NotSerializableException e ) {
+			Files.deleteIfExists( temp );
+			EventLog.log( NOT_SAVED, file.getFileName(), e.getMessage() );
+			return false;
+		} catch( final IOException e ) {
+			Files.deleteIfExists( temp );
+			throw e;
+		}
+		EventLog.log( SNAPSHOT_WRITTEN, file, Files.size( file ) );
+		return true;
+	}
+
+	/**
+	 * @param file
+	 * @return the snapshot mapped read only
+	 * @throws IOException
+	 */
+	private static MappedByteBuffer map(final Path file) throws IOException {
+		final FileChannel channel = FileChannel.open( file, StandardOpenOption.READ );
+		try {
+			return channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * reads a byte buffer as a stream
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override public int read(final byte[] b, final int off, final int len) {
+			if( !buffer.hasRemaining() ) {
+				return -1;
+			}
+			final int n = Math.min( len, buffer.remaining() );
+			buffer.get( b, off, n );
+			return n;
+		}
+
+		@Override public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * takes periodic snapshots of throughput, latency and post gc heap usage
+ * while a soak test runs, then fits a trend line to them to detect slow
+ * memory leaks and throughput decay.
+ *
+ * @author patrick
+ *
+ */
+final class SoakMonitor implements TestFixture {
+
+	static final String SNAPSHOT = "%8.1f s %12.2f ops/s %10.3f ms p99 %14d bytes heap";
+	static final String HEAP_GROWTH = "post gc heap grew by %.1f%% (%d bytes) over the soak run, more than the %.1f%% allowed.";
+	static final String THROUGHPUT_DROP = "throughput dropped by %.1f%% over the soak run, more than the %.1f%% allowed.";
+	static final String TOO_SHORT = "the soak run took %d snapshots after warm up, at least %d are needed to judge a trend; run it for longer or take snapshots more often.";
+
+	// snapshots after the warm up one needed to fit a trend
+	private static final int MIN_SNAPSHOTS = 3;
+
+	/**
+	 * one point in time during the soak run
+	 */
+	static final class Snapshot {
+		final double seconds;
+		final double opsPerSecond;
+		final double p99Millis;
+		final long heapBytes;
+
+		Snapshot(final double seconds, final double opsPerSecond, final double p99Millis, final long heapBytes) {
+			this.seconds = seconds;
+			this.opsPerSecond = opsPerSecond;
+			this.p99Millis = p99Millis;
+			this.heapBytes = heapBytes;
+		}
+
+		@Override public String toString() {
+			return String.format( SNAPSHOT, seconds, opsPerSecond, p99Millis, heapBytes );
+		}
+	}
+
+	private final List<Snapshot> snapshots = new ArrayList<Snapshot>();
+	private final HarnessMetrics metrics = HarnessMetrics.get();
+	private final long intervalMillis;
+	private ScheduledExecutorService timer = null;
+	private long started;
+	private long lastTime;
+	private long lastCompleted;
+
+	/**
+	 * @param intervalMillis time between snapshots
+	 */
+	SoakMonitor(final long intervalMillis) {
+		this.intervalMillis = intervalMillis;
+	}
+
+	/**
+	 * start taking snapshots
+	 */
+	synchronized void start() {
+		started = System.nanoTime();
+		lastTime = started;
+		lastCompleted = metrics.getCompletedOperations();
+		timer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+			@Override public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread( r, "soak-monitor" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		});
+		timer.scheduleAtFixedRate( new Runnable() {
+			@Override public void run() {
+				snapshot();
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS );
+	}
+
+	/**
+	 * stop taking snapshots. stopping again, or before starting, does nothing
+	 * but return the snapshots.
+	 *
+	 * @return the snapshots taken
+	 * @throws InterruptedException
+	 */
+	List<Snapshot> stop() throws InterruptedException {
+		final ScheduledExecutorService stopping;
+		synchronized( this ) {
+			stopping = timer;
+			timer = null;
+		}
+		if( stopping != null ) {
+			stopping.shutdownNow();
+			stopping.awaitTermination( intervalMillis, TimeUnit.MILLISECONDS );
+		}
+		synchronized( this ) {
+			return new ArrayList<Snapshot>( snapshots );
+		}
+	}
+
+	/**
+	 * record one snapshot. the collection it forces is left out of the
+	 * throughput of the next snapshot.
+	 */
+	private synchronized void snapshot() {
+		final long now = System.nanoTime();
+		final long completed = metrics.getCompletedOperations();
+		final double opsPerSecond = (completed - lastCompleted) * 1e9d / Math.max( 1, now - lastTime );
+		final double p99 = metrics.getLatencyP99Millis();
+		snapshots.add( new Snapshot( (now - started) / 1e9d, opsPerSecond, p99, getPostGcHeapUsage() ) );
+		lastTime = System.nanoTime();
+		lastCompleted = metrics.getCompletedOperations();
+	}
+
+	/**
+	 * fit a trend to the snapshots and check it against the thresholds. the
+	 * first snapshot is treated as warm up and ignored.
+	 *
+	 * @param snapshots
+	 * @param maxHeapGrowth allowed growth of post gc heap, as a fraction of the starting value
+	 * @param maxThroughputDrop allowed drop in throughput, as a fraction of the starting value
+	 * @return explanation of why the run failed or was too short to judge, or <code>null</code> if it passed
+	 */
+	static String assess(final List<Snapshot> snapshots, final double maxHeapGrowth, final double maxThroughputDrop) {
+		final int n = snapshots.size() - 1;
+		if( n < MIN_SNAPSHOTS ) {
+			return String.format( TOO_SHORT, Math.max( 0, n ), MIN_SNAPSHOTS );
+		}
+		final double[] time = new double[n];
+		final double[] heap = new double[n];
+		final double[] throughput = new double[n];
+		for( int i=0;i<n;i++ ) {
+			final Snapshot snapshot = snapshots.get( i + 1 );
+			time[i] = snapshot.seconds;
+			heap[i] = snapshot.heapBytes;
+			throughput[i] = snapshot.opsPerSecond;
+		}
+
+		final StringBuilder failures = new StringBuilder();
+		final double[] heapTrend = fit( time, heap );
+		final double heapStart = heapTrend[1] + heapTrend[0] * time[0];
+		final double heapEnd = heapTrend[1] + heapTrend[0] * time[n - 1];
+		if( (heapStart > 0) && ((heapEnd - heapStart) / heapStart > maxHeapGrowth) ) {
+			failures.append( String.format( HEAP_GROWTH, 100 * (heapEnd - heapStart) / heapStart,
+					(long) (heapEnd - heapStart), 100 * maxHeapGrowth ) );
+		}
+
+		final double[] throughputTrend = fit( time, throughput );
+		final double throughputStart = throughputTrend[1] + throughputTrend[0] * time[0];
+		final double throughputEnd = throughputTrend[1] + throughputTrend[0] * time[n - 1];
+		if( (throughputStart > 0) && ((throughputStart - throughputEnd) / throughputStart > maxThroughputDrop) ) {
+			if( failures.length() > 0 ) {
+				failures.append( ' ' );
+			}
+			failures.append( String.format( THROUGHPUT_DROP, 100 * (throughputStart - throughputEnd) / throughputStart,
+					100 * maxThroughputDrop ) );
+		}
+		return failures.length() == 0 ? null : failures.toString();
+	}
+
+	/**
+	 * least squares fit of a straight line
+	 *
+	 * @param x
+	 * @param y
+	 * @return slope and intercept
+	 */
+	static double[] fit(final double[] x, final double[] y) {
+		double sx = 0, sy = 0, sxx = 0, sxy = 0;
+		final int n = x.length;
+		for( int i=0;i<n;i++ ) {
+			sx += x[i];
+			sy += y[i];
+			sxx += x[i] * x[i];
+			sxy += x[i] * y[i];
+		}
+		final double d = n * sxx - sx * sx;
+		final double slope = d == 0 ? 0 : (n * sxy - sx * sy) / d;
+		return new double[] { slope, (sy - slope * sx) / n };
+	}
+
+	/**
+	 * force a full collection and measure the heap left after it. the
+	 * collection usage of the old generation pools only changes after an old
+	 * or mixed collection, which g1 and the parallel collector may not run
+	 * during a whole soak, so without one a slow leak would show as a flat
+	 * line. after a full collection the collection usage of every pool is
+	 * current, and unlike the heap usage it does not include what the users
+	 * allocated since.
+	 *
+	 * @return heap used right after a full collection, summed over all heap pools
+	 */
+	static long getPostGcHeapUsage() {
+		ManagementFactory.getMemoryMXBean().gc();
+		long used = 0;
+		boolean found = false;
+		for( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			final MemoryUsage usage = pool.getCollectionUsage();
+			if( (pool.getType() == MemoryType.HEAP) && (usage != null) ) {
+				used += usage.getUsed();
+				found = true;
+			}
+		}
+		return found ? used : ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
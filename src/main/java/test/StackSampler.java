@@ -0,0 +1,194 @@
+package test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * samples the stacks of the user threads while they are running the measured
+ * part of a phase, and counts how often each stack was seen. the counts are
+ * written in the collapsed stack format, one <code>frame;frame;frame count</code>
+ * line per stack from the root down, which flame graph tools render directly.
+ *
+ * sampling goes through the thread mbean, so it needs no agent, but every
+ * sample briefly stops the sampled threads. when a sample costs more than the
+ * allowed fraction of the interval, the interval is doubled.
+ *
+ * @author patrick
+ *
+ */
+final class StackSampler implements TestFixture {
+
+	/**
+	 * system property with the folder to write profiles to.
+	 */
+	static final String PROFILE_DIR = "test.harness.profile.dir";
+
+	static final String PROFILED = "profiled the %s test: %d samples every %d ms (%d ms at the end), sampling took %.2f ms, %.2f%% of %.2f seconds; wrote '%s'.";
+
+	// frames kept per stack
+	private static final int MAX_DEPTH = 256;
+
+	// longest interval to back off to, in millis
+	private static final long MAX_INTERVAL = 1000;
+
+	private final ThreadMXBean mbean = ManagementFactory.getThreadMXBean();
+	private final Set<Long> users = ConcurrentHashMap.newKeySet();
+	private final Map<String, long[]> stacks = new HashMap<String, long[]>();
+	private final long initialInterval;
+	private final double maxOverhead;
+	private volatile long interval;
+	private volatile boolean running = false;
+	private Thread sampler = null;
+	private long samples = 0;
+	private long samplingNanos = 0;
+	private long start;
+	private long elapsed;
+
+	/**
+	 * @param intervalMillis
+	 * @param maxOverhead fraction of the interval a sample may take before the interval is doubled
+	 */
+	StackSampler(final long intervalMillis, final double maxOverhead) {
+		this.initialInterval = Math.max( 1, intervalMillis );
+		this.interval = initialInterval;
+		this.maxOverhead = maxOverhead;
+	}
+
+	/**
+	 * a user started its measured work on the current thread
+	 */
+	void userStarted() {
+		users.add( Thread.currentThread().getId() );
+	}
+
+	/**
+	 * the user on the current thread finished its measured work
+	 */
+	void userFinished() {
+		users.remove( Thread.currentThread().getId() );
+	}
+
+	/**
+	 * start the sampler thread
+	 */
+	void start() {
+		// the first stack dump sets up the mbean, keep that out of the overhead
+		mbean.getThreadInfo( Thread.currentThread().getId(), MAX_DEPTH );
+		start = System.nanoTime();
+		running = true;
+		sampler = new Thread( new Runnable() {
+			@Override public void run() {
+				while( running ) {
+					LockSupport.parkNanos( interval * 1000000L );
+					if( running ) {
+						sample();
+					}
+				}
+			}
+		}, "stack-sampler" );
+		sampler.setDaemon( true );
+		sampler.start();
+	}
+
+	/**
+	 * stop sampling
+	 *
+	 * @throws InterruptedException
+	 */
+	void stop() throws InterruptedException {
+		running = false;
+		LockSupport.unpark( sampler );
+		sampler.join();
+		elapsed = System.nanoTime() - start;
+	}
+
+	/**
+	 * take one sample of every user thread
+	 */
+	private void sample() {
+		final long begin = System.nanoTime();
+		final Long[] current = users.toArray( new Long[0] );
+		if( current.length == 0 ) {
+			return;
+		}
+		final long[] ids = new long[current.length];
+		for( int i=0;i<ids.length;i++ ) {
+			ids[i] = current[i];
+		}
+		final ThreadInfo[] infos = mbean.getThreadInfo( ids, MAX_DEPTH );
+		for( final ThreadInfo info : infos ) {
+			if( (info == null) || (info.getStackTrace().length == 0) ) {
+				continue;
+			}
+			final String stack = collapse( info.getStackTrace() );
+			long[] count = stacks.get( stack );
+			if( count == null ) {
+				count = new long[1];
+				stacks.put( stack, count );
+			}
+			count[0]++;
+		}
+		samples++;
+		final long cost = System.nanoTime() - begin;
+		samplingNanos += cost;
+		if( (cost > maxOverhead * interval * 1000000L) && (interval < MAX_INTERVAL) ) {
+			interval = Math.min( MAX_INTERVAL, interval * 2 );
+		}
+	}
+
+	/**
+	 * @param frames innermost first
+	 * @return frames from the root down, separated by semicolons
+	 */
+	private static String collapse(final StackTraceElement[] frames) {
+		final StringBuilder stack = new StringBuilder();
+		for( int i=frames.length - 1;i>=0;i-- ) {
+			if( stack.length() > 0 ) {
+				stack.append( ';' );
+			}
+			stack.append( frames[i].getClassName() ).append( '.' ).append( frames[i].getMethodName() );
+		}
+		return stack.toString();
+	}
+
+	/**
+	 * write the collapsed stacks for a phase.
+	 *
+	 * @param fixture
+	 * @param phase
+	 * @return message describing the profile and its overhead
+	 * @throws IOException
+	 */
+	String write(final String fixture, final String phase) throws IOException {
+		final Path dir = Paths.get( System.getProperty( PROFILE_DIR, "target/profiles" ) );
+		Files.createDirectories( dir );
+		final Path file = dir.resolve( String.format( "%s-%s.collapsed", fixture, phase.replace( ' ', '-' ) ) );
+		final BufferedWriter writer = Files.newBufferedWriter( file, StandardCharsets.UTF_8 );
+		try {
+			for( final Entry<String, long[]> stack : new TreeMap<String, long[]>( stacks ).entrySet() ) {
+				writer.write( stack.getKey() );
+				writer.write( ' ' );
+				writer.write( Long.toString( stack.getValue()[0] ) );
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+		return String.format( PROFILED, phase, samples, initialInterval, interval, samplingNanos / 1e6d,
+				elapsed > 0 ? 100d * samplingNanos / elapsed : 0d, elapsed / 1e9d, file );
+	}
+}
@@ -0,0 +1,261 @@
+package test;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * runs the <code>@Actor</code> methods of a fixture against a shared
+ * component for many short rounds and builds a histogram of the outcomes.
+ *
+ * rounds are run in batches: a batch of fresh components is created, then
+ * every actor thread walks the batch in step with the others, so each round
+ * sees the actors start at nearly the same moment. the outcome of a round is
+ * the list of values the actors returned, in actor name order. when an actor
+ * fails or does not reach the end of a batch in time, the others stop at the
+ * next batch and the run fails.
+ *
+ * @author patrick
+ *
+ */
+final class StressRunner<C> implements TestFixture {
+
+	static final String HISTOGRAM = "%12d  %-12s %s";
+	static final String SUMMARY = "stress test ran %d rounds of %s in %.2f seconds.";
+	static final String FORBIDDEN = "the stress test observed forbidden outcomes: %s";
+	static final String BAD_ACTOR = "actor '%s' must take exactly one parameter, the component under test.";
+	static final String ACTOR_TIMEOUT = "actor '%s' waited more than %d seconds for the other actors to finish a batch.";
+	static final String STUCK = "actors %s were still running %d seconds after the stress test failed.";
+
+	// rounds per batch
+	private static final int BATCH = 1024;
+
+	// how long the actors get to stop once the run failed, at least, in seconds
+	private static final long STOP_GRACE = 10;
+
+	// how often the run checks for a failure while the actors are busy, in millis
+	private static final long POLL = 100;
+
+	private final BaseTestCase<C, ?> fixture;
+	private final List<Method> actors;
+	private final long timeout;
+
+	// outcome counts
+	private final Map<String, long[]> histogram = new TreeMap<String, long[]>();
+
+	/**
+	 * @param fixture
+	 * @param actors
+	 * @param timeout seconds an actor waits for the others to finish a batch,
+	 *        0 to wait as long as it takes
+	 */
+	StressRunner(final BaseTestCase<C, ?> fixture, final List<Method> actors, final long timeout) {
+		this.fixture = fixture;
+		this.actors = actors;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param type
+	 * @return the <code>@Actor</code> methods of the class, sorted by name
+	 */
+	static List<Method> getActors(final Class<?> type) {
+		final List<Method> actors = getAnnotatedMethods( type, Actor.class );
+		for( final Method method : actors ) {
+			org.junit.Assert.assertTrue( String.format( BAD_ACTOR, method.getName() ), method.getParameterTypes().length == 1 );
+		}
+		Collections.sort( actors, new Comparator<Method>() {
+			@Override public int compare(final Method a, final Method b) {
+				return a.getName().compareTo( b.getName() );
+			}
+		});
+		return actors;
+	}
+
+	/**
+	 * find the methods with an annotation whatever their access, declared by
+	 * the class or inherited from its superclasses. a method overridden by a
+	 * subclass is only found once, as the override.
+	 *
+	 * @param type
+	 * @param annotation
+	 * @return the methods, made accessible
+	 */
+	static List<Method> getAnnotatedMethods(final Class<?> type, final Class<? extends Annotation> annotation) {
+		final List<Method> methods = new ArrayList<Method>();
+		final Set<String> seen = new HashSet<String>();
+		for( Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass() ) {
+			for( final Method method : c.getDeclaredMethods() ) {
+				if( method.isBridge() || method.isSynthetic() ) {
+					continue;
+				}
+				if( seen.add( method.getName() + Arrays.toString( method.getParameterTypes() ) ) && method.isAnnotationPresent( annotation ) ) {
+					method.setAccessible( true );
+					methods.add( method );
+				}
+			}
+		}
+		return methods;
+	}
+
+	/**
+	 * run the rounds.
+	 *
+	 * @param rounds
+	 * @return outcome counts, by outcome
+	 * @throws Exception
+	 */
+	Map<String, Long> run(final long rounds) throws Exception {
+		final int n = actors.size();
+		final Object[] states = new Object[BATCH];
+		final Object[][] results = new Object[n][BATCH];
+		final long batches = (rounds + BATCH - 1) / BATCH;
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		// the barrier action closes the previous batch and prepares the next one
+		final long[] batch = { -1 };
+		final CyclicBarrier barrier = new CyclicBarrier( n, new Runnable() {
+			@Override public void run() {
+				try {
+					if( batch[0] >= 0 ) {
+						record( results );
+					}
+					if( ++batch[0] < batches ) {
+						for( int i=0;i<BATCH;i++ ) {
+							states[i] = fixture.createStressState();
+						}
+					}
+				} catch( final Throwable e ) {
+					error.compareAndSet( null, e );
+					batch[0] = batches;
+				}
+			}
+		});
+
+		final List<Thread> threads = new ArrayList<Thread>( n );
+		for( int a=0;a<n;a++ ) {
+			final Method actor = actors.get( a );
+			final Object[] mine = results[a];
+			final Thread thread = new Thread( new Runnable() {
+				@Override public void run() {
+					try {
+						await( barrier );
+						while( (batch[0] < batches) && (error.get() == null) ) {
+							for( int i=0;i<BATCH;i++ ) {
+								mine[i] = actor.invoke( fixture, states[i] );
+							}
+							// an actor that failed may have reset the barrier already
+							if( error.get() != null ) {
+								return;
+							}
+							await( barrier );
+						}
+					} catch( final InvocationTargetException e ) {
+						error.compareAndSet( null, e.getCause() );
+						barrier.reset();
+					} catch( final TimeoutException e ) {
+						error.compareAndSet( null, new TimeoutException( String.format( ACTOR_TIMEOUT, actor.getName(), timeout ) ) );
+						barrier.reset();
+					} catch( final BrokenBarrierException e ) {
+						// another actor failed
+					} catch( final Throwable e ) {
+						error.compareAndSet( null, e );
+						barrier.reset();
+					}
+				}
+			}, "stress-" + actor.getName() );
+			thread.setDaemon( true );
+			threads.add( thread );
+			thread.start();
+		}
+		for( final Thread thread : threads ) {
+			while( thread.isAlive() && (error.get() == null) ) {
+				thread.join( POLL );
+			}
+		}
+
+		// once the run failed the actors get until the end of their batch to stop
+		final long grace = Math.max( timeout, STOP_GRACE );
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( grace );
+		final List<String> stuck = new ArrayList<String>();
+		for( final Thread thread : threads ) {
+			thread.join( Math.max( 1, TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() ) ) );
+			if( thread.isAlive() ) {
+				stuck.add( thread.getName() );
+			}
+		}
+		if( !stuck.isEmpty() ) {
+			throw new Exception( String.format( STUCK, stuck, grace ), error.get() );
+		}
+		if( error.get() != null ) {
+			throw new Exception( error.get() );
+		}
+
+		final Map<String, Long> counts = new TreeMap<String, Long>();
+		for( final Entry<String, long[]> entry : histogram.entrySet() ) {
+			counts.put( entry.getKey(), entry.getValue()[0] );
+		}
+		return counts;
+	}
+
+	/**
+	 * wait for the other actors, for as long as the timeout allows
+	 *
+	 * @param barrier
+	 * @throws Exception
+	 */
+	private void await(final CyclicBarrier barrier) throws Exception {
+		if( timeout > 0 ) {
+			barrier.await( timeout, TimeUnit.SECONDS );
+		} else {
+			barrier.await();
+		}
+	}
+
+	/**
+	 * add the outcomes of a batch to the histogram
+	 *
+	 * @param results
+	 */
+	private void record(final Object[][] results) {
+		final Object[] outcome = new Object[results.length];
+		for( int i=0;i<BATCH;i++ ) {
+			for( int a=0;a<results.length;a++ ) {
+				outcome[a] = results[a][i];
+			}
+			final String key = Arrays.deepToString( outcome );
+			long[] count = histogram.get( key );
+			if( count == null ) {
+				count = new long[1];
+				histogram.put( key, count );
+			}
+			count[0]++;
+		}
+	}
+
+	/**
+	 * @return names of the actors
+	 */
+	String describe() {
+		final List<String> names = new ArrayList<String>();
+		for( final Method actor : actors ) {
+			names.add( actor.getName() );
+		}
+		return names.toString();
+	}
+}
@@ -0,0 +1,79 @@
+package test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * latencies recorded by many threads without contending: every thread records
+ * into a histogram of its own, and they are added up when read. a reset
+ * forgets the histograms recorded so far; a thread that records again after
+ * it starts a new one, so threads that are gone don't stay registered.
+ *
+ * @author patrick
+ *
+ */
+final class ThreadHistograms implements TestFixture {
+
+	// histograms of the threads since the last reset, and the one for the current thread
+	private volatile int generation = 0;
+	private volatile List<Owned> histograms = new CopyOnWriteArrayList<Owned>();
+	private final ThreadLocal<Owned> mine = new ThreadLocal<Owned>();
+
+	/**
+	 * record a latency for the current thread
+	 *
+	 * @param nanos
+	 */
+	void record(final long nanos) {
+		Owned owned = mine.get();
+		if( (owned == null) || (owned.generation != generation) ) {
+			owned = new Owned( generation );
+			histograms.add( owned );
+			mine.set( owned );
+		}
+		owned.histogram.recordByOwner( nanos );
+	}
+
+	/**
+	 * @return number of latencies recorded since the last reset
+	 */
+	long getTotalCount() {
+		long total = 0;
+		for( final Owned owned : histograms ) {
+			total += owned.histogram.getTotalCount();
+		}
+		return total;
+	}
+
+	/**
+	 * @return every latency recorded since the last reset, in a new histogram
+	 */
+	LatencyHistogram merged() {
+		final LatencyHistogram merged = new LatencyHistogram();
+		for( final Owned owned : histograms ) {
+			merged.add( owned.histogram );
+		}
+		return merged;
+	}
+
+	/**
+	 * forget the latencies recorded so far. not meant to run while threads
+	 * are recording.
+	 */
+	void reset() {
+		histograms = new CopyOnWriteArrayList<Owned>();
+		generation++;
+	}
+
+	/**
+	 * the histogram of one thread. only that thread records into it.
+	 */
+	private static final class Owned {
+		final int generation;
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		Owned(final int generation) {
+			this.generation = generation;
+		}
+	}
+}
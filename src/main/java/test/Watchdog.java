@@ -0,0 +1,319 @@
+package test;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * watches a thread safety run for deadlocks, users that stop making progress,
+ * throughput collapsing to near zero when asked to, and the run taking too
+ * long. when it sees any of them it dumps the stacks and lock owners of the
+ * users, cancels them, and keeps the explanation for the fixture to fail with.
+ * cancelling interrupts the users, which does not free a thread blocked on a
+ * monitor, for instance in a deadlock between synchronized blocks; the
+ * explanation names those threads, they are left running.
+ *
+ * users register through <code>HarnessMetrics</code>, and every completed call
+ * counts as progress for the thread that made it.
+ *
+ * @author patrick
+ *
+ */
+final class Watchdog implements TestFixture {
+
+	static final String DEADLOCK = "deadlock between %d threads";
+	static final String STALLED = "user thread '%s' made no progress for %.1f seconds, more than the %d allowed by '%s'";
+	static final String COLLAPSED = "throughput collapsed to %.2f calls per second per user, below %.0f%% of the peak of %.2f, for %d seconds";
+	static final String TIMED_OUT = "the run took more than the %d seconds allowed by '%s'";
+	static final String WATCHDOG_FAILURE = "the watchdog stopped the thread safety test: %s.%n%s";
+	static final String LEFT_RUNNING = "; user threads %s are blocked on monitors, which can't be interrupted, and are left running";
+
+	// how often to check, in millis
+	private static final long CHECK_MILLIS = 250;
+
+	// checks per throughput window, and windows throughput must stay low for
+	private static final int CHECKS_PER_WINDOW = 4;
+	private static final int COLLAPSE_WINDOWS = 5;
+
+	private final ThreadMXBean mbean = ManagementFactory.getThreadMXBean();
+	private final long operationTimeout;
+	private final long phaseTimeout;
+	private final double collapseFraction;
+	private final String operationTimeoutName;
+	private final String phaseTimeoutName;
+
+	// last progress of each user thread, by thread id
+	private final Map<Long, AtomicLong> progress = new ConcurrentHashMap<Long, AtomicLong>();
+	private List<? extends Future<?>> users = null;
+	private volatile String failure = null;
+	private volatile boolean running = false;
+	private Thread watcher = null;
+
+	/**
+	 * @param operationTimeout seconds a user may go without completing a call, 0 for no limit
+	 * @param operationTimeoutName parameter the operation timeout came from
+	 * @param phaseTimeout seconds the run may take, 0 for no limit
+	 * @param phaseTimeoutName parameter the phase timeout came from
+	 * @param collapseFraction fraction of peak throughput per user below which throughput has collapsed,
+	 *        0 or less to not check
+	 */
+	Watchdog(final long operationTimeout, final String operationTimeoutName, final long phaseTimeout,
+			final String phaseTimeoutName, final double collapseFraction) {
+		this.operationTimeout = operationTimeout;
+		this.operationTimeoutName = operationTimeoutName;
+		this.phaseTimeout = phaseTimeout;
+		this.phaseTimeoutName = phaseTimeoutName;
+		this.collapseFraction = collapseFraction;
+	}
+
+	/**
+	 * a user started on the current thread
+	 */
+	void userStarted() {
+		progress.put( Thread.currentThread().getId(), new AtomicLong( System.nanoTime() ) );
+	}
+
+	/**
+	 * the user on the current thread finished
+	 */
+	void userFinished() {
+		progress.remove( Thread.currentThread().getId() );
+	}
+
+	/**
+	 * the user on the current thread completed a call
+	 *
+	 * @param now value of <code>System.nanoTime()</code>
+	 */
+	void progressed(final long now) {
+		final AtomicLong last = progress.get( Thread.currentThread().getId() );
+		if( last != null ) {
+			last.lazySet( now );
+		}
+	}
+
+	/**
+	 * start watching the users
+	 *
+	 * @param users to cancel when the watchdog fires
+	 */
+	void start(final List<? extends Future<?>> users) {
+		this.users = users;
+		running = true;
+		watcher = new Thread( new Runnable() {
+			@Override public void run() {
+				watch();
+			}
+		}, "watchdog" );
+		watcher.setDaemon( true );
+		watcher.start();
+	}
+
+	/**
+	 * stop watching
+	 *
+	 * @throws InterruptedException
+	 */
+	void stop() throws InterruptedException {
+		running = false;
+		LockSupport.unpark( watcher );
+		watcher.join();
+	}
+
+	/**
+	 * @return why the watchdog fired, with the thread dump, or <code>null</code> if it did not
+	 */
+	String getFailure() {
+		return failure;
+	}
+
+	/**
+	 * wait for a user to finish, or for the watchdog to fire.
+	 *
+	 * @param user
+	 * @throws Exception thrown by the user
+	 */
+	void await(final Future<?> user) throws Exception {
+		while( (failure == null) && !user.isDone() ) {
+			try {
+				user.get( CHECK_MILLIS, TimeUnit.MILLISECONDS );
+			} catch( final TimeoutException e ) {
+				// check again
+			}
+		}
+		if( failure == null ) {
+			user.get();
+		}
+	}
+
+	/**
+	 * check the users until stopped or until something is wrong
+	 */
+	private void watch() {
+		final HarnessMetrics metrics = HarnessMetrics.get();
+		final long start = System.nanoTime();
+		long windowStart = start;
+		long windowCompleted = metrics.getCompletedOperations();
+		double peak = 0;
+		int checks = 0;
+		int lowWindows = 0;
+		while( running && (failure == null) ) {
+			LockSupport.parkNanos( CHECK_MILLIS * 1000000L );
+			final long now = System.nanoTime();
+
+			// only deadlocks among the users count, earlier fixtures may have left some behind
+			final long[] deadlocked = mbean.findDeadlockedThreads();
+			if( (deadlocked != null) && involvesUser( deadlocked ) ) {
+				fire( String.format( DEADLOCK, deadlocked.length ), deadlocked );
+				break;
+			}
+
+			if( operationTimeout > 0 ) {
+				for( final Entry<Long, AtomicLong> user : progress.entrySet() ) {
+					final double idle = (now - user.getValue().get()) / 1e9d;
+					if( idle > operationTimeout ) {
+						final ThreadInfo info = mbean.getThreadInfo( user.getKey() );
+						fire( String.format( STALLED, info == null ? user.getKey().toString() : info.getThreadName(), idle,
+								operationTimeout, operationTimeoutName ), new long[] { user.getKey() } );
+						break;
+					}
+				}
+			}
+
+			if( (failure == null) && (phaseTimeout > 0) && (now - start > phaseTimeout * 1000000000L) ) {
+				fire( String.format( TIMED_OUT, phaseTimeout, phaseTimeoutName ), new long[0] );
+			}
+
+			if( (failure == null) && (collapseFraction > 0) && (++checks % CHECKS_PER_WINDOW == 0) ) {
+				final int inFlight = progress.size();
+				final long completed = metrics.getCompletedOperations();
+				final double rate = inFlight == 0 ? 0 : (completed - windowCompleted) * 1e9d / (now - windowStart) / inFlight;
+				if( inFlight == 0 ) {
+					lowWindows = 0;
+				} else if( rate < collapseFraction * peak ) {
+					if( ++lowWindows >= COLLAPSE_WINDOWS ) {
+						fire( String.format( COLLAPSED, rate, 100 * collapseFraction, peak, COLLAPSE_WINDOWS ), new long[0] );
+					}
+				} else {
+					lowWindows = 0;
+					peak = Math.max( peak, rate );
+				}
+				windowStart = now;
+				windowCompleted = completed;
+			}
+		}
+	}
+
+	/**
+	 * record the failure with a dump of the threads involved, and cancel the
+	 * users.
+	 *
+	 * @param reason
+	 * @param involved threads to dump besides the users
+	 */
+	private void fire(final String reason, final long[] involved) {
+		final Set<Long> ids = new TreeSet<Long>( progress.keySet() );
+		for( final long id : involved ) {
+			ids.add( id );
+		}
+		// add the owners of the locks the threads are waiting for
+		final Set<Long> owners = new TreeSet<Long>();
+		for( final ThreadInfo info : mbean.getThreadInfo( toArray( ids ), false, false ) ) {
+			if( (info != null) && (info.getLockOwnerId() >= 0) ) {
+				owners.add( info.getLockOwnerId() );
+			}
+		}
+		ids.addAll( owners );
+
+		final StringBuilder dump = new StringBuilder();
+		final List<String> blocked = new ArrayList<String>();
+		for( final ThreadInfo info : mbean.getThreadInfo( toArray( ids ),
+				mbean.isObjectMonitorUsageSupported(), mbean.isSynchronizerUsageSupported() ) ) {
+			if( info != null ) {
+				describe( info, dump );
+				if( (info.getThreadState() == Thread.State.BLOCKED) && progress.containsKey( info.getThreadId() ) ) {
+					blocked.add( info.getThreadName() );
+				}
+			}
+		}
+		failure = String.format( WATCHDOG_FAILURE,
+				blocked.isEmpty() ? reason : reason + String.format( LEFT_RUNNING, blocked ), dump );
+		for( final Future<?> user : users ) {
+			user.cancel( true );
+		}
+	}
+
+	/**
+	 * @param ids
+	 * @return <code>true</code> if any of the threads is a user
+	 */
+	private boolean involvesUser(final long[] ids) {
+		for( final long id : ids ) {
+			if( progress.containsKey( id ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param ids
+	 * @return the ids as an array
+	 */
+	private static long[] toArray(final Set<Long> ids) {
+		final long[] array = new long[ids.size()];
+		int i = 0;
+		for( final Long id : ids ) {
+			array[i++] = id;
+		}
+		return array;
+	}
+
+	/**
+	 * describe a thread like a thread dump does, but with the whole stack.
+	 *
+	 * @param info
+	 * @param dump to append to
+	 */
+	private static void describe(final ThreadInfo info, final StringBuilder dump) {
+		dump.append( String.format( "\"%s\" id=%d %s", info.getThreadName(), info.getThreadId(), info.getThreadState() ) );
+		if( info.getLockName() != null ) {
+			dump.append( " on " ).append( info.getLockName() );
+		}
+		if( info.getLockOwnerName() != null ) {
+			dump.append( String.format( " owned by \"%s\" id=%d", info.getLockOwnerName(), info.getLockOwnerId() ) );
+		}
+		dump.append( String.format( "%n" ) );
+		final StackTraceElement[] stack = info.getStackTrace();
+		for( int i=0;i<stack.length;i++ ) {
+			dump.append( String.format( "\tat %s%n", stack[i] ) );
+			for( final MonitorInfo monitor : info.getLockedMonitors() ) {
+				if( monitor.getLockedStackDepth() == i ) {
+					dump.append( String.format( "\t- locked %s%n", monitor ) );
+				}
+			}
+		}
+		final LockInfo[] synchronizers = info.getLockedSynchronizers();
+		if( synchronizers.length > 0 ) {
+			dump.append( String.format( "\tlocked synchronizers:%n" ) );
+			for( final LockInfo synchronizer : synchronizers ) {
+				dump.append( String.format( "\t- %s%n", synchronizer ) );
+			}
+		}
+		dump.append( String.format( "%n" ) );
+	}
+}
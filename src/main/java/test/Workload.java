@@ -0,0 +1,241 @@
+package test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the weighted <code>@Operation</code> methods of a fixture, with the latency
+ * of each operation in the current phase. operations are called through
+ * method handles looked up once, and each user thread records their
+ * latencies on its own.
+ *
+ * @author patrick
+ *
+ */
+final class Workload implements TestFixture {
+
+	static final String OPERATION_REPORT = "operation '%s' (weight %.1f%%): %d calls (%.1f%%), %.2f calls per second, p50 %.3f ms, p99 %.3f ms, max %.3f ms.";
+	static final String BAD_OPERATION = "operation '%s' must take the parameters of verifyFunctionality: Map, the component under test, the test data and AtomicInteger.";
+	static final String BAD_WEIGHT = "operation '%s' must have a weight greater than 0.";
+	static final String UNKNOWN_OPERATION = "there is no operation named '%s'.";
+
+	private final List<Op> operations;
+	private final double totalWeight;
+
+	/**
+	 * @param operations
+	 */
+	private Workload(final List<Op> operations) {
+		this.operations = operations;
+		double total = 0;
+		for( final Op operation : operations ) {
+			total += operation.weight;
+		}
+		this.totalWeight = total;
+	}
+
+	/**
+	 * @param type
+	 * @return the workload of the <code>@Operation</code> methods of the class
+	 *         and its superclasses, whatever their access, or <code>null</code>
+	 *         if it has none
+	 */
+	static Workload of(final Class<?> type) throws IllegalAccessException {
+		final List<Op> operations = new ArrayList<Op>();
+		for( final Method method : StressRunner.getAnnotatedMethods( type, Operation.class ) ) {
+			final Operation operation = method.getAnnotation( Operation.class );
+			final Class<?>[] parameters = method.getParameterTypes();
+			org.junit.Assert.assertTrue( String.format( BAD_OPERATION, method.getName() ), (parameters.length == 4)
+					&& Map.class.isAssignableFrom( parameters[0] ) && (parameters[3] == AtomicInteger.class) );
+			org.junit.Assert.assertTrue( String.format( BAD_WEIGHT, method.getName() ), operation.weight() > 0 );
+			operations.add( new Op( method, operation.weight() ) );
+		}
+		if( operations.isEmpty() ) {
+			return null;
+		}
+		Collections.sort( operations, new Comparator<Op>() {
+			@Override public int compare(final Op a, final Op b) {
+				return a.name.compareTo( b.name );
+			}
+		});
+		return new Workload( operations );
+	}
+
+	/**
+	 * @return an operation picked at random in proportion to the weights
+	 */
+	Op pick() {
+		double point = ThreadLocalRandom.current().nextDouble() * totalWeight;
+		for( final Op operation : operations ) {
+			point -= operation.weight;
+			if( point < 0 ) {
+				return operation;
+			}
+		}
+		return operations.get( operations.size() - 1 );
+	}
+
+	/**
+	 * split users between the operations in proportion to their weights,
+	 * rounding by largest remainder. when there are enough users, every
+	 * operation gets at least one, so rare operations are still measured.
+	 *
+	 * @param user index of the user
+	 * @param users number of users
+	 * @return the operation for the user
+	 */
+	Op assign(final int user, final int users) {
+		final int n = operations.size();
+		final double[] shares = new double[n];
+		final int[] counts = new int[n];
+		int assigned = 0;
+		for( int i=0;i<n;i++ ) {
+			shares[i] = operations.get( i ).weight / totalWeight * users;
+			counts[i] = users >= n ? Math.max( 1, (int) shares[i] ) : (int) shares[i];
+			assigned += counts[i];
+		}
+		while( assigned > users ) {
+			// the minimum of one took users from elsewhere, give them back from the largest
+			int largest = 0;
+			for( int i=1;i<n;i++ ) {
+				if( counts[i] > counts[largest] ) {
+					largest = i;
+				}
+			}
+			counts[largest]--;
+			assigned--;
+		}
+		while( assigned < users ) {
+			int behind = 0;
+			for( int i=1;i<n;i++ ) {
+				if( shares[i] - counts[i] > shares[behind] - counts[behind] ) {
+					behind = i;
+				}
+			}
+			counts[behind]++;
+			assigned++;
+		}
+		int first = 0;
+		for( int i=0;i<n;i++ ) {
+			first += counts[i];
+			if( user < first ) {
+				return operations.get( i );
+			}
+		}
+		return operations.get( n - 1 );
+	}
+
+	/**
+	 * @param name
+	 * @return the operation with the name
+	 */
+	Op get(final String name) {
+		for( final Op operation : operations ) {
+			if( operation.name.equals( name ) ) {
+				return operation;
+			}
+		}
+		throw new IllegalArgumentException( String.format( UNKNOWN_OPERATION, name ) );
+	}
+
+	/**
+	 * forget the latencies of the previous phase
+	 */
+	void reset() {
+		for( final Op operation : operations ) {
+			operation.latencies.reset();
+		}
+	}
+
+	/**
+	 * @param wallNanos length of the phase
+	 * @return one line per operation with its share, throughput and latency
+	 */
+	String report(final long wallNanos) {
+		long total = 0;
+		for( final Op operation : operations ) {
+			total += operation.latencies.getTotalCount();
+		}
+		final StringBuilder report = new StringBuilder();
+		for( final Op operation : operations ) {
+			final LatencyHistogram latencies = operation.latencies.merged();
+			if( report.length() > 0 ) {
+				report.append( String.format( "%n" ) );
+			}
+			report.append( String.format( OPERATION_REPORT, operation.name, 100 * operation.weight / totalWeight,
+					latencies.getTotalCount(), total == 0 ? 0d : 100d * latencies.getTotalCount() / total,
+					wallNanos > 0 ? latencies.getTotalCount() * 1e9d / wallNanos : 0d,
+					latencies.getValueAtPercentile( 0.5d ) / 1e6d, latencies.getValueAtPercentile( 0.99d ) / 1e6d,
+					latencies.getMax() / 1e6d ) );
+		}
+		return report.toString();
+	}
+
+	/**
+	 * one weighted operation
+	 */
+	static final class Op {
+
+		// (fixture, params, component, test data, counter) -> void
+		private static final MethodType INVOKED = MethodType.methodType( void.class, Object.class, Map.class,
+				Object.class, Object.class, AtomicInteger.class );
+
+		final String name;
+		final double weight;
+		final ThreadHistograms latencies = new ThreadHistograms();
+		private final MethodHandle handle;
+
+		/**
+		 * @param method accessible operation method
+		 * @param weight
+		 * @throws IllegalAccessException
+		 */
+		Op(final Method method, final double weight) throws IllegalAccessException {
+			this.name = method.getName();
+			this.weight = weight;
+			this.handle = MethodHandles.lookup().unreflect( method ).asType( INVOKED );
+		}
+
+		/**
+		 * record the latency of one call on the current thread
+		 *
+		 * @param nanos
+		 */
+		void record(final long nanos) {
+			latencies.record( nanos );
+		}
+
+		/**
+		 * run the operation, rethrowing what it throws.
+		 *
+		 * @param fixture
+		 * @param params
+		 * @param componentUnderTest
+		 * @param testData
+		 * @param countsForThisUser
+		 * @throws Exception
+		 */
+		void invoke(final Object fixture, final Map<String, Object> params, final Object componentUnderTest,
+				final Object testData, final AtomicInteger countsForThisUser) throws Exception {
+			try {
+				handle.invokeExact( fixture, params, componentUnderTest, testData, countsForThisUser );
+			} catch( final Exception e ) {
+				throw e;
+			} catch( final Error e ) {
+				throw e;
+			} catch( final Throwable e ) {
+				throw new UndeclaredThrowableException( e );
+			}
+		}
+	}
+}
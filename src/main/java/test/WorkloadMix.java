@@ -0,0 +1,24 @@
+package test;
+
+/**
+ * how the operations of a mixed workload are spread over the simulated users.
+ * set the name of one of these as the <code>workload.mix</code> parameter.
+ *
+ * @author patrick
+ *
+ */
+public enum WorkloadMix {
+
+	/**
+	 * every call picks an operation at random, with probability in proportion
+	 * to its weight. this is the default.
+	 */
+	MIXED,
+
+	/**
+	 * every user of the thread safety test runs a single operation, and the
+	 * users are split between the operations in proportion to their weights.
+	 * the single user of the performance test mixes them.
+	 */
+	ROLES
+}
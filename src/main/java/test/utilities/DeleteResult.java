@@ -0,0 +1,71 @@
+package test.utilities;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import test.TestFixture;
+
+/**
+ * outcome of deleting a directory tree: how many files and directories were
+ * removed, and which paths could not be removed and why.
+ *
+ * @author patrick
+ *
+ */
+public final class DeleteResult implements TestFixture {
+
+	private final AtomicLong deleted = new AtomicLong();
+	private final Map<Path, IOException> failures = new ConcurrentHashMap<Path, IOException>();
+
+	/**
+	 * only built by <code>Utilities</code>
+	 */
+	DeleteResult(){}
+
+	/**
+	 * record a path that was removed
+	 */
+	void deleted() {
+		deleted.incrementAndGet();
+	}
+
+	/**
+	 * record a path that could not be removed
+	 *
+	 * @param path
+	 * @param cause
+	 */
+	void failed(final Path path, final IOException cause) {
+		failures.put( path, cause );
+	}
+
+	/**
+	 * @return number of files, links and directories removed
+	 */
+	public long getDeletedCount() {
+		return deleted.get();
+	}
+
+	/**
+	 * @return paths that could not be removed, with the reason
+	 */
+	public Map<Path, IOException> getFailures() {
+		return Collections.unmodifiableMap( failures );
+	}
+
+	/**
+	 * @return <code>true</code> if every path was removed
+	 */
+	public boolean isSuccessful() {
+		return failures.isEmpty();
+	}
+
+	@Override public String toString() {
+		return String.format( "deleted %d paths, %d failed%s", getDeletedCount(), failures.size(),
+				failures.isEmpty() ? "" : ": " + failures.keySet() );
+	}
+}
@@ -0,0 +1,319 @@
+package test.utilities;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import test.TestFixture;
+
+/**
+ * measures the retained heap size of an object graph.
+ *
+ * the graph is walked with reflection. the size of each object comes from the
+ * instrumentation agent when the jvm was started with
+ * <code>-javaagent</code> pointing to a jar whose <code>Premain-Class</code> is
+ * this class, otherwise it is estimated from the field layout. everything
+ * reachable from the object is not necessarily retained by it: singletons,
+ * interned strings and caches are reachable from outside as well. to leave
+ * them out, the walk stops at objects that are also reachable from a second,
+ * independently created copy of the object.
+ *
+ * when the graph cannot be walked, for example because the jvm does not allow
+ * reflective access to the fields of its own classes since java 9, the size
+ * falls back to the difference in post gc heap usage around creating the
+ * object. the result says which of these methods was used.
+ *
+ * @author patrick
+ *
+ */
+public final class MemoryFootprint implements TestFixture {
+
+	// set by the agent entry points
+	private static volatile Instrumentation instrumentation = null;
+
+	// layout assumptions used when there is no agent
+	private static final boolean JVM_64 = !"32".equals( System.getProperty( "sun.arch.data.model" ) );
+	private static final boolean COMPRESSED_OOPS = JVM_64 && (Runtime.getRuntime().maxMemory() < 32L * 1024 * 1024 * 1024);
+	private static final int REFERENCE = !JVM_64 || COMPRESSED_OOPS ? 4 : 8;
+	private static final int HEADER = !JVM_64 ? 8 : COMPRESSED_OOPS ? 12 : 16;
+
+	// instance fields per class, including inherited ones
+	private static final Map<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<Class<?>, Field[]>();
+
+	/**
+	 * sizes taken from the instrumentation agent
+	 */
+	public static final String AGENT = "measured by agent";
+
+	/**
+	 * sizes estimated from the field layout
+	 */
+	public static final String FIELD_LAYOUT = "estimated from the field layout";
+
+	/**
+	 * the graph could not be walked, the size is the heap growth after gc
+	 */
+	public static final String HEAP_DELTA = "heap growth after gc, the graph could not be walked";
+
+	/**
+	 * can't construct. use methods as static imports.
+	 */
+	private MemoryFootprint(){}
+
+	/**
+	 * agent entry point when loaded with <code>-javaagent</code>
+	 *
+	 * @param args
+	 * @param inst
+	 */
+	public static void premain(final String args, final Instrumentation inst) {
+		instrumentation = inst;
+	}
+
+	/**
+	 * agent entry point when attached to a running jvm
+	 *
+	 * @param args
+	 * @param inst
+	 */
+	public static void agentmain(final String args, final Instrumentation inst) {
+		instrumentation = inst;
+	}
+
+	/**
+	 * measure the retained size of an object, falling back to a heap delta
+	 * around a copy created by the factory.
+	 *
+	 * @param object the object to measure
+	 * @param factory creates an equivalent object. what is reachable from that
+	 *        copy as well is not counted, so a factory that hands out the same
+	 *        object again measures 0 bytes.
+	 * @return size in bytes and how it was measured
+	 * @throws Exception
+	 */
+	public static Footprint measure(final Object object, final Callable<?> factory) throws Exception {
+		final Map<Object, Object> shared = new IdentityHashMap<Object, Object>();
+		if( walk( factory.call(), shared ) >= 0 ) {
+			final long size = walk( object, shared );
+			if( size >= 0 ) {
+				return new Footprint( size, isEstimated() ? FIELD_LAYOUT : AGENT );
+			}
+		}
+		return new Footprint( heapDelta( factory ), HEAP_DELTA );
+	}
+
+	/**
+	 * @param object the object to measure
+	 * @param factory creates an equivalent object
+	 * @return retained size in bytes, as for <code>measure</code>
+	 * @throws Exception
+	 */
+	public static long sizeOf(final Object object, final Callable<?> factory) throws Exception {
+		return measure( object, factory ).bytes;
+	}
+
+	/**
+	 * walk the graph reachable from the object and add up the size of every
+	 * object found, whether or not something else refers to it too. classes,
+	 * class loaders and threads are not followed.
+	 *
+	 * @param root
+	 * @return size in bytes, or -1 if the graph could not be walked
+	 */
+	public static long deepSizeOf(final Object root) {
+		return walk( root, new IdentityHashMap<Object, Object>() );
+	}
+
+	/**
+	 * walk the graph reachable from the object, skipping objects that were
+	 * visited before and what is only reachable through them.
+	 *
+	 * @param root
+	 * @param visited objects seen so far, updated with the ones found
+	 * @return size in bytes of the objects found, or -1 if the graph could not
+	 *         be walked
+	 */
+	private static long walk(final Object root, final Map<Object, Object> visited) {
+		if( root == null ) {
+			return 0;
+		}
+		final Deque<Object> pending = new ArrayDeque<Object>();
+		pending.push( root );
+		long size = 0;
+		try {
+			while( !pending.isEmpty() ) {
+				final Object o = pending.pop();
+				if( visited.put( o, o ) != null ) {
+					continue;
+				}
+				final Class<?> type = o.getClass();
+				size += shallowSizeOf( o );
+				if( type.isArray() ) {
+					if( !type.getComponentType().isPrimitive() ) {
+						for( int i=0;i<Array.getLength( o );i++ ) {
+							push( pending, Array.get( o, i ) );
+						}
+					}
+				} else {
+					for( final Field field : getFields( type ) ) {
+						if( !field.getType().isPrimitive() ) {
+							push( pending, field.get( o ) );
+						}
+					}
+				}
+			}
+		} catch( final IllegalAccessException e ) {
+			return -1;
+		} catch( final RuntimeException e ) {
+			// inaccessible module or security manager
+			return -1;
+		}
+		return size;
+	}
+
+	/**
+	 * measure the growth in post gc heap usage caused by creating an object.
+	 *
+	 * @param factory
+	 * @return size in bytes
+	 * @throws Exception
+	 */
+	public static long heapDelta(final Callable<?> factory) throws Exception {
+		final long before = settledHeapUsage();
+		final Object object = factory.call();
+		final long after = settledHeapUsage();
+		// keep the object reachable until after the second measurement
+		return object == null ? 0 : Math.max( 0, after - before );
+	}
+
+	/**
+	 * @param o
+	 * @return size of the object itself, not counting what it refers to
+	 */
+	static long shallowSizeOf(final Object o) {
+		if( instrumentation != null ) {
+			return instrumentation.getObjectSize( o );
+		}
+		final Class<?> type = o.getClass();
+		if( type.isArray() ) {
+			final Class<?> component = type.getComponentType();
+			return align( align( HEADER + 4 ) + (long) Array.getLength( o ) * sizeOfType( component ) );
+		}
+		long size = HEADER;
+		for( final Field field : getFields( type ) ) {
+			size += sizeOfType( field.getType() );
+		}
+		return align( size );
+	}
+
+	/**
+	 * @param pending
+	 * @param o
+	 */
+	private static void push(final Deque<Object> pending, final Object o) {
+		if( (o != null) && !(o instanceof Class) && !(o instanceof ClassLoader) && !(o instanceof Thread) ) {
+			pending.push( o );
+		}
+	}
+
+	/**
+	 * @param type
+	 * @return accessible instance fields of the class and its super classes
+	 */
+	private static Field[] getFields(final Class<?> type) {
+		Field[] fields = FIELDS.get( type );
+		if( fields == null ) {
+			final List<Field> list = new ArrayList<Field>();
+			for( Class<?> c = type;c != null;c = c.getSuperclass() ) {
+				for( final Field field : c.getDeclaredFields() ) {
+					if( !Modifier.isStatic( field.getModifiers() ) ) {
+						field.setAccessible( true );
+						list.add( field );
+					}
+				}
+			}
+			fields = list.toArray( new Field[list.size()] );
+			FIELDS.put( type, fields );
+		}
+		return fields;
+	}
+
+	/**
+	 * @param type
+	 * @return bytes used by a field or array element of the type
+	 */
+	private static int sizeOfType(final Class<?> type) {
+		if( (type == long.class) || (type == double.class) ) {
+			return 8;
+		} else if( (type == int.class) || (type == float.class) ) {
+			return 4;
+		} else if( (type == short.class) || (type == char.class) ) {
+			return 2;
+		} else if( (type == byte.class) || (type == boolean.class) ) {
+			return 1;
+		}
+		return REFERENCE;
+	}
+
+	/**
+	 * @param size
+	 * @return size rounded up to the 8 byte object alignment
+	 */
+	private static long align(final long size) {
+		return (size + 7) & ~7L;
+	}
+
+	/**
+	 * @return heap in use after asking the jvm to collect garbage a few times
+	 * @throws InterruptedException
+	 */
+	private static long settledHeapUsage() throws InterruptedException {
+		long used = Long.MAX_VALUE;
+		for( int i=0;i<4;i++ ) {
+			System.gc();
+			Thread.sleep( 20 );
+			used = Math.min( used, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() );
+		}
+		return used;
+	}
+
+	/**
+	 * @return <code>true</code> if object sizes are estimated from the field
+	 *         layout, <code>false</code> if they come from the agent
+	 */
+	public static boolean isEstimated() {
+		return instrumentation == null;
+	}
+
+	/**
+	 * a measured size and the method used to measure it
+	 */
+	public static final class Footprint {
+
+		/**
+		 * size in bytes
+		 */
+		public final long bytes;
+
+		/**
+		 * one of <code>AGENT</code>, <code>FIELD_LAYOUT</code> or
+		 * <code>HEAP_DELTA</code>
+		 */
+		public final String method;
+
+		Footprint(final long bytes, final String method) {
+			this.bytes = bytes;
+			this.method = method;
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package test.utilities;
+
+import java.util.Arrays;
+
+import test.TestFixture;
+
+/**
+ * basic statistics for comparing measurements.
+ *
+ * @author patrick
+ *
+ */
+public final class Statistics implements TestFixture {
+
+    // degrees of freedom up to which t quantiles are computed exactly
+    private static final int EXACT_T_DF = 30;
+
+    /**
+     * can't construct. use methods as static imports.
+     */
+    private Statistics(){}
+
+    /**
+     * @param values
+     * @return arithmetic mean
+     */
+    public static double mean(final double[] values) {
+        double sum = 0;
+        for( final double value : values ) {
+            sum += value;
+        }
+        return values.length == 0 ? Double.NaN : sum / values.length;
+    }
+
+    /**
+     * @param values
+     * @return sample standard deviation
+     */
+    public static double standardDeviation(final double[] values) {
+        if( values.length < 2 ) {
+            return 0;
+        }
+        final double mean = mean( values );
+        double sum = 0;
+        for( final double value : values ) {
+            sum += (value - mean) * (value - mean);
+        }
+        return Math.sqrt( sum / (values.length - 1) );
+    }
+
+    /**
+     * @param values
+     * @return median
+     */
+    public static double median(final double[] values) {
+        if( values.length == 0 ) {
+            return Double.NaN;
+        }
+        final double[] sorted = values.clone();
+        Arrays.sort( sorted );
+        final int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    /**
+     * @param values
+     * @return standard deviation divided by the mean
+     */
+    public static double coefficientOfVariation(final double[] values) {
+        final double mean = mean( values );
+        return mean == 0 ? Double.NaN : standardDeviation( values ) / Math.abs( mean );
+    }
+
+    /**
+     * @param values
+     * @param q between 0 and 1
+     * @return quantile, interpolating between the closest values
+     */
+    public static double quantile(final double[] values, final double q) {
+        if( values.length == 0 ) {
+            return Double.NaN;
+        }
+        final double[] sorted = values.clone();
+        Arrays.sort( sorted );
+        final double position = q * (sorted.length - 1);
+        final int below = (int) Math.floor( position );
+        final int above = Math.min( sorted.length - 1, below + 1 );
+        return sorted[below] + (position - below) * (sorted[above] - sorted[below]);
+    }
+
+    /**
+     * find outliers with tukey's fences: values more than 1.5 times the inter
+     * quartile range below the first quartile or above the third.
+     *
+     * @param values
+     * @return for each value, <code>true</code> if it is an outlier
+     */
+    public static boolean[] outliers(final double[] values) {
+        final double q1 = quantile( values, 0.25 );
+        final double q3 = quantile( values, 0.75 );
+        final double fence = 1.5 * (q3 - q1);
+        final boolean[] outliers = new boolean[values.length];
+        for( int i=0;i<values.length;i++ ) {
+            outliers[i] = (values[i] < q1 - fence) || (values[i] > q3 + fence);
+        }
+        return outliers;
+    }
+
+    /**
+     * half width of the confidence interval of the mean, using the t
+     * distribution.
+     *
+     * @param values
+     * @param confidence for example 0.99
+     * @return half width, so the interval is mean +/- the value returned
+     */
+    public static double confidenceHalfWidth(final double[] values, final double confidence) {
+        if( values.length < 2 ) {
+            return Double.NaN;
+        }
+        return tQuantile( 1 - (1 - confidence) / 2, values.length - 1 ) * standardDeviation( values ) / Math.sqrt( values.length );
+    }
+
+    /**
+     * two sided wilcoxon signed rank test that the paired differences are
+     * centered on zero, using the normal approximation.
+     *
+     * @param differences
+     * @return p value
+     */
+    public static double wilcoxonSignedRank(final double[] differences) {
+        // drop zero differences and rank the rest by magnitude, averaging ties
+        final double[] magnitudes = new double[differences.length];
+        int n = 0;
+        for( final double difference : differences ) {
+            if( difference != 0 ) {
+                magnitudes[n++] = Math.abs( difference );
+            }
+        }
+        if( n == 0 ) {
+            return 1;
+        }
+        final double[] sorted = Arrays.copyOf( magnitudes, n );
+        Arrays.sort( sorted );
+        double positive = 0;
+        for( final double difference : differences ) {
+            if( difference > 0 ) {
+                positive += rank( sorted, Math.abs( difference ) );
+            }
+        }
+        final double mean = n * (n + 1) / 4d;
+        final double sd = Math.sqrt( n * (n + 1) * (2 * n + 1) / 24d );
+        final double z = (Math.abs( positive - mean ) - 0.5) / sd;
+        return Math.min( 1, 2 * (1 - normalCdf( Math.max( 0, z ) )) );
+    }
+
+    /**
+     * @param sorted
+     * @param value
+     * @return average 1 based rank of the value in the sorted array
+     */
+    private static double rank(final double[] sorted, final double value) {
+        int first = Arrays.binarySearch( sorted, value );
+        int last = first;
+        while( (first > 0) && (sorted[first - 1] == value) ) {
+            first--;
+        }
+        while( (last < sorted.length - 1) && (sorted[last + 1] == value) ) {
+            last++;
+        }
+        return (first + last) / 2d + 1;
+    }
+
+    /**
+     * @param x
+     * @return standard normal cumulative distribution
+     */
+    public static double normalCdf(final double x) {
+        // abramowitz and stegun 26.2.17
+        final double t = 1 / (1 + 0.2316419 * Math.abs( x ));
+        final double d = 0.3989422804014327 * Math.exp( -x * x / 2 );
+        final double p = d * t * (0.319381530 + t * (-0.356563782 + t * (1.781477937 + t * (-1.821255978 + t * 1.330274429))));
+        return x >= 0 ? 1 - p : p;
+    }
+
+    /**
+     * @param p probability between 0 and 1
+     * @return standard normal quantile
+     */
+    public static double normalQuantile(final double p) {
+        // acklam's rational approximation
+        final double[] a = { -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02, 1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+        final double[] b = { -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02, 6.680131188771972e+01, -1.328068155288572e+01 };
+        final double[] c = { -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00, -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+        final double[] d = { 7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00, 3.754408661907416e+00 };
+        if( p < 0.02425 ) {
+            final double q = Math.sqrt( -2 * Math.log( p ) );
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5]) / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        } else if( p > 1 - 0.02425 ) {
+            return -normalQuantile( 1 - p );
+        }
+        final double q = p - 0.5;
+        final double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+
+    /**
+     * @param t
+     * @param df degrees of freedom
+     * @return cumulative distribution of the t distribution
+     */
+    public static double tCdf(final double t, final int df) {
+        final double tail = 0.5 * incompleteBeta( df / (df + t * t), df / 2d, 0.5 );
+        return t >= 0 ? 1 - tail : tail;
+    }
+
+    /**
+     * quantile of the t distribution. up to 30 degrees of freedom the
+     * distribution function is inverted, the cornish-fisher expansion of the
+     * normal quantile is too far off there in the tails. above that the
+     * expansion is used, it is within 0.1% of the exact value.
+     *
+     * @param p probability between 0 and 1
+     * @param df degrees of freedom
+     * @return quantile of the t distribution
+     */
+    public static double tQuantile(final double p, final int df) {
+        if( p < 0.5 ) {
+            return -tQuantile( 1 - p, df );
+        }
+        if( df > EXACT_T_DF ) {
+            final double z = normalQuantile( p );
+            final double z3 = z * z * z;
+            final double z5 = z3 * z * z;
+            final double z7 = z5 * z * z;
+            return z + (z3 + z) / (4d * df) + (5 * z5 + 16 * z3 + 3 * z) / (96d * df * df)
+                    + (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384d * df * df * df);
+        }
+        // bracket the quantile, then bisect
+        double low = 0;
+        double high = 1;
+        while( tCdf( high, df ) < p ) {
+            low = high;
+            high *= 2;
+        }
+        for( int i=0;i<100 && high - low > 1e-12 * high;i++ ) {
+            final double middle = (low + high) / 2;
+            if( tCdf( middle, df ) < p ) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    /**
+     * @param x between 0 and 1
+     * @param a
+     * @param b
+     * @return regularized incomplete beta function
+     */
+    private static double incompleteBeta(final double x, final double a, final double b) {
+        if( x <= 0 ) {
+            return 0;
+        }
+        if( x >= 1 ) {
+            return 1;
+        }
+        final double front = Math.exp( logGamma( a + b ) - logGamma( a ) - logGamma( b ) + a * Math.log( x ) + b * Math.log( 1 - x ) );
+        // the continued fraction converges quickly on this side of the mean
+        return x < (a + 1) / (a + b + 2) ? front * betaFraction( x, a, b ) / a : 1 - front * betaFraction( 1 - x, b, a ) / b;
+    }
+
+    /**
+     * @param x
+     * @param a
+     * @param b
+     * @return continued fraction of the incomplete beta function, by lentz's method
+     */
+    private static double betaFraction(final double x, final double a, final double b) {
+        final double tiny = 1e-300;
+        double c = 1;
+        double d = 1 / nonZero( 1 - (a + b) * x / (a + 1), tiny );
+        double f = d;
+        for( int m=1;m<=300;m++ ) {
+            final double even = m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m));
+            d = 1 / nonZero( 1 + even * d, tiny );
+            c = nonZero( 1 + even / c, tiny );
+            f *= d * c;
+            final double odd = -(a + m) * (a + b + m) * x / ((a + 2 * m) * (a + 2 * m + 1));
+            d = 1 / nonZero( 1 + odd * d, tiny );
+            c = nonZero( 1 + odd / c, tiny );
+            final double delta = d * c;
+            f *= delta;
+            if( Math.abs( delta - 1 ) < 1e-15 ) {
+                break;
+            }
+        }
+        return f;
+    }
+
+    private static double nonZero(final double value, final double tiny) {
+        return Math.abs( value ) < tiny ? tiny : value;
+    }
+
+    /**
+     * @param x greater than 0
+     * @return natural logarithm of the gamma function, lanczos approximation
+     */
+    private static double logGamma(final double x) {
+        final double[] g = { 57.1562356658629235, -59.5979603554754912, 14.1360979747417471, -0.491913816097620199,
+                0.339946499848118887e-4, 0.465236289270485756e-4, -0.983744753048795646e-4, 0.158088703224912494e-3,
+                -0.210264441724104883e-3, 0.217439618115212643e-3, -0.164318106536763890e-3, 0.844182239838527433e-4,
+                -0.261908384015814087e-4, 0.368991826595316234e-5 };
+        final double t = x + 5.24218750000000000;
+        double sum = 0.999999999999997092;
+        for( int i=0;i<g.length;i++ ) {
+            sum += g[i] / (x + 1 + i);
+        }
+        return (x + 0.5) * Math.log( t ) - t + Math.log( 2.5066282746310005 * sum / x );
+    }
+}
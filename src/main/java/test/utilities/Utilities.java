@@ -2,17 +2,37 @@ package test.utilities;
 
 import java.awt.geom.Rectangle2D;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Pattern;
 
 import test.TestFixture;
@@ -47,6 +67,21 @@ public final class Utilities implements TestFixture {
 	 */
 	public static final String UUID_PATTERN = "[0-9A-Fa-f]{8}-[0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}-[0-9A-Fa-f]{12}";
 
+	/**
+	 * compiled UUID pattern, so callers do not compile it again
+	 */
+	public static final Pattern COMPILED_UUID_PATTERN = Pattern.compile( UUID_PATTERN );
+
+	// scanner modes for the validators
+	private static final int WORD = 0;
+	private static final int UUID_SHAPE = 1;
+	private static final int UUID_LENGTH = 36;
+
+
+    /**
+     * bounded pool for deleting folders
+     */
+    private static final ForkJoinPool DELETE_POOL = new ForkJoinPool( Math.min( 8, Runtime.getRuntime().availableProcessors() ) );
 
     /**
      * can't construct. use methods as static imports.
@@ -93,18 +128,214 @@ public final class Utilities implements TestFixture {
     }
 
     /**
-     * Verifies if passed string is alphanumeric
+     * Verifies if passed string is alphanumeric. same result as searching for
+     * <code>NON_ALPHA_NUMERIC_PATTERN</code>, without creating a matcher.
      * @param value string passed
      * @return true if passed parameter is alphanumeric, false otherwise
      */
 	public static boolean checkAlphanumericValue(final String value) {
-	    // no need to instantiate a matcher
-		if(NON_ALPHA_NUMERIC_PATTERN.matcher(value).find()) {
+		return scan( WORD, value, 0, value.length() );
+	}
+
+	/**
+	 * @param value
+	 * @return <code>true</code> if the whole value has the shape of a UUID
+	 */
+	public static boolean isUuid(final CharSequence value) {
+		return scan( UUID_SHAPE, value, 0, value.length() );
+	}
+
+	/**
+	 * validate many values at once without allocating.
+	 *
+	 * @param values
+	 * @param results bit i is set if value i is alphanumeric. allocated if
+	 *        <code>null</code>, bits past the last value are cleared.
+	 * @return results
+	 */
+	public static BitSet checkAlphanumericValues(final CharSequence[] values, final BitSet results) {
+		return scan( WORD, values, results );
+	}
+
+	/**
+	 * validate many values at once without allocating.
+	 *
+	 * @param values
+	 * @param results bit i is set if value i has the shape of a UUID.
+	 *        allocated if <code>null</code>, bits past the last value are
+	 *        cleared.
+	 * @return results
+	 */
+	public static BitSet checkUuidValues(final CharSequence[] values, final BitSet results) {
+		return scan( UUID_SHAPE, values, results );
+	}
+
+	/**
+	 * validate delimited values held in one sequence, for example a
+	 * <code>CharBuffer</code>, without allocating. the buffer position is not
+	 * changed. every delimiter separates two values, so <code>",a"</code> and
+	 * <code>"a,"</code> both hold two values, one of them empty, and an empty
+	 * sequence holds none. an empty value is alphanumeric, like an empty
+	 * string for <code>checkAlphanumericValue</code>.
+	 *
+	 * @param values
+	 * @param delimiter
+	 * @param results bit i is set if value i is alphanumeric. allocated if
+	 *        <code>null</code>, bits past the last value are cleared.
+	 * @return results
+	 */
+	public static BitSet checkAlphanumericValues(final CharSequence values, final char delimiter, final BitSet results) {
+		return scan( WORD, values, delimiter, results );
+	}
+
+	/**
+	 * validate delimited values held in one sequence, for example a
+	 * <code>CharBuffer</code>, without allocating. the buffer position is not
+	 * changed. values are split as for <code>checkAlphanumericValues</code>;
+	 * an empty value is not a UUID.
+	 *
+	 * @param values
+	 * @param delimiter
+	 * @param results bit i is set if value i has the shape of a UUID.
+	 *        allocated if <code>null</code>, bits past the last value are
+	 *        cleared.
+	 * @return results
+	 */
+	public static BitSet checkUuidValues(final CharSequence values, final char delimiter, final BitSet results) {
+		return scan( UUID_SHAPE, values, delimiter, results );
+	}
+
+	/**
+	 * validate delimited UTF-8 values without decoding them. word characters
+	 * and UUID characters are all ASCII, so any byte of a multi-byte character
+	 * fails the check. the buffer position is not changed. values are split
+	 * as for the <code>CharSequence</code> version.
+	 *
+	 * @param utf8
+	 * @param delimiter an ASCII delimiter, which never matches a byte of a
+	 *        multi-byte character
+	 * @param results bit i is set if value i is alphanumeric. allocated if
+	 *        <code>null</code>, bits past the last value are cleared.
+	 * @return results
+	 */
+	public static BitSet checkAlphanumericValues(final ByteBuffer utf8, final byte delimiter, final BitSet results) {
+		return scan( WORD, utf8, delimiter, results );
+	}
+
+	/**
+	 * validate delimited UTF-8 values without decoding them. the buffer
+	 * position is not changed. values are split as for the
+	 * <code>CharSequence</code> version.
+	 *
+	 * @param utf8
+	 * @param delimiter an ASCII delimiter
+	 * @param results bit i is set if value i has the shape of a UUID.
+	 *        allocated if <code>null</code>, bits past the last value are
+	 *        cleared.
+	 * @return results
+	 */
+	public static BitSet checkUuidValues(final ByteBuffer utf8, final byte delimiter, final BitSet results) {
+		return scan( UUID_SHAPE, utf8, delimiter, results );
+	}
+
+	/**
+	 * @param mode
+	 * @param values
+	 * @param results
+	 * @return results
+	 */
+	private static BitSet scan(final int mode, final CharSequence[] values, final BitSet results) {
+		final BitSet bits = results == null ? new BitSet( values.length ) : results;
+		for( int i=0;i<values.length;i++ ) {
+			bits.set( i, (values[i] != null) && scan( mode, values[i], 0, values[i].length() ) );
+		}
+		bits.clear( values.length, Math.max( values.length, bits.length() ) );
+		return bits;
+	}
+
+	/**
+	 * @param mode
+	 * @param values
+	 * @param delimiter
+	 * @param results
+	 * @return results
+	 */
+	private static BitSet scan(final int mode, final CharSequence values, final char delimiter, final BitSet results) {
+		final BitSet bits = results == null ? new BitSet() : results;
+		final int length = values.length();
+		int start = 0;
+		int n = 0;
+		for( int i=0;(length > 0) && (i<=length);i++ ) {
+			if( (i == length) || (values.charAt( i ) == delimiter) ) {
+				bits.set( n++, scan( mode, values, start, i ) );
+				start = i + 1;
+			}
+		}
+		bits.clear( n, Math.max( n, bits.length() ) );
+		return bits;
+	}
+
+	/**
+	 * @param mode
+	 * @param utf8
+	 * @param delimiter
+	 * @param results
+	 * @return results
+	 */
+	private static BitSet scan(final int mode, final ByteBuffer utf8, final byte delimiter, final BitSet results) {
+		final BitSet bits = results == null ? new BitSet() : results;
+		final int limit = utf8.limit();
+		int start = utf8.position();
+		int n = 0;
+		for( int i=start;(limit > utf8.position()) && (i<=limit);i++ ) {
+			if( (i == limit) || (utf8.get( i ) == delimiter) ) {
+				boolean valid = (mode == WORD) || (i - start == UUID_LENGTH);
+				for( int j=start;valid && (j<i);j++ ) {
+					valid = accepts( mode, utf8.get( j ) & 0xff, j - start );
+				}
+				bits.set( n++, valid );
+				start = i + 1;
+			}
+		}
+		bits.clear( n, Math.max( n, bits.length() ) );
+		return bits;
+	}
+
+	/**
+	 * @param mode
+	 * @param value
+	 * @param from inclusive
+	 * @param to exclusive
+	 * @return <code>true</code> if every character in the range is accepted by the mode
+	 */
+	private static boolean scan(final int mode, final CharSequence value, final int from, final int to) {
+		if( (mode == UUID_SHAPE) && (to - from != UUID_LENGTH) ) {
 			return false;
 		}
+		for( int i=from;i<to;i++ ) {
+			if( !accepts( mode, value.charAt( i ), i - from ) ) {
+				return false;
+			}
+		}
 		return true;
 	}
 
+	/**
+	 * @param mode
+	 * @param c character
+	 * @param index position of the character in the value
+	 * @return <code>true</code> if the character is valid at that position
+	 */
+	private static boolean accepts(final int mode, final int c, final int index) {
+		if( mode == WORD ) {
+			return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (c == '_');
+		}
+		if( (index == 8) || (index == 13) || (index == 18) || (index == 23) ) {
+			return c == '-';
+		}
+		return ((c >= '0') && (c <= '9')) || ((c >= 'a') && (c <= 'f')) || ((c >= 'A') && (c <= 'F'));
+	}
+
 	/**
 	 * utility method to get stack trace from an exception as a string
 	 *
@@ -119,44 +350,344 @@ public final class Utilities implements TestFixture {
 	}
 
 	/**
+	 * remove empty entries from a nested graph: <code>null</code> values, blank
+	 * strings, and maps, collections and arrays that are empty once their own
+	 * contents have been pruned. descends into any <code>Map</code>,
+	 * <code>Collection</code> or object array. the walk is iterative so deeply
+	 * nested graphs do not overflow the stack, and shared or cyclic references
+	 * are pruned only once. unmodifiable maps and collections keep their
+	 * entries, only what they hold is pruned.
+	 *
 	 * @param graph
 	 */
-	@SuppressWarnings("unchecked")
 	public static void prune( final Map<String, Serializable> graph ) {
-		final Iterator<Entry<String, Serializable>> entries = graph.entrySet().iterator();
-		Entry<String, Serializable> entry = null;
-		while( entries.hasNext() ) {
-			entry = entries.next();
-			if( (entry.getValue() == null) || ((entry.getValue() instanceof String) && isEmpty( (String) entry.getValue())) ) {
-				entries.remove();
-			} else if( entry.getValue() instanceof Map<?,?> ) {
-				prune( (HashMap<String, Serializable>) entry.getValue() );
-				if( ((Map<?,?>)entry.getValue()).size() == 0 ) {
-					entries.remove();
+		pruneIteratively( graph );
+	}
+
+	/**
+	 * same as <code>prune</code> but wide containers have their children
+	 * pruned in parallel on the given pool. the graph must be a tree: a
+	 * subgraph reachable from two parents could be pruned by two threads.
+	 *
+	 * @param graph
+	 * @param pool
+	 */
+	public static void prune( final Map<String, Serializable> graph, final ForkJoinPool pool ) {
+		pool.invoke( new PruneTask( graph ) );
+	}
+
+	/**
+	 * prune the graph children first, using an explicit stack instead of recursion.
+	 *
+	 * @param root
+	 */
+	private static void pruneIteratively( final Object root ) {
+		final Map<Object, Object> seen = new IdentityHashMap<Object, Object>();
+		final Deque<Object> containers = new ArrayDeque<Object>();
+		final Deque<Iterator<?>> children = new ArrayDeque<Iterator<?>>();
+		seen.put( root, root );
+		containers.push( root );
+		children.push( getChildren( root ) );
+		while( !containers.isEmpty() ) {
+			final Iterator<?> next = children.peek();
+			if( next.hasNext() ) {
+				final Object child = next.next();
+				if( isContainer( child ) && (seen.put( child, child ) == null) ) {
+					containers.push( child );
+					children.push( getChildren( child ) );
 				}
-			} else if( (entry.getValue() instanceof List<?>) && (((List<?>) entry.getValue()).size() == 0) ) {
-				entries.remove();
-			} else if( entry.getValue().getClass().isArray() && (Array.getLength( entry.getValue() ) == 0) ) {
-				entries.remove();
+			} else {
+				children.pop();
+				pruneEntries( containers.pop() );
 			}
 		}
 	}
 
+	/**
+	 * fork/join task that prunes the children of a wide container in parallel.
+	 */
+	private static final class PruneTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		// min number of nested containers before they are pruned in parallel
+		private static final int PARALLEL_THRESHOLD = 64;
+
+		private final Object container;
+
+		PruneTask( final Object container ) {
+			this.container = container;
+		}
+
+		@Override protected void compute() {
+			final List<PruneTask> tasks = new ArrayList<PruneTask>();
+			final Iterator<?> children = getChildren( container );
+			while( children.hasNext() ) {
+				final Object child = children.next();
+				if( isContainer( child ) ) {
+					tasks.add( new PruneTask( child ) );
+				}
+			}
+			if( tasks.size() >= PARALLEL_THRESHOLD ) {
+				invokeAll( tasks );
+			} else {
+				for( final PruneTask task : tasks ) {
+					pruneIteratively( task.container );
+				}
+			}
+			pruneEntries( container );
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return <code>true</code> if the value can hold nested values
+	 */
+	private static boolean isContainer( final Object value ) {
+		return (value instanceof Map<?,?>) || (value instanceof Collection<?>) || (value instanceof Object[]);
+	}
+
+	/**
+	 * @param container
+	 * @return the values held directly by the container
+	 */
+	private static Iterator<?> getChildren( final Object container ) {
+		if( container instanceof Map<?,?> ) {
+			return ((Map<?,?>) container).values().iterator();
+		} else if( container instanceof Collection<?> ) {
+			return ((Collection<?>) container).iterator();
+		}
+		return Arrays.asList( (Object[]) container ).iterator();
+	}
+
+	/**
+	 * remove the empty values held directly by the container. arrays cannot
+	 * shrink, so only their contents are pruned, and neither can unmodifiable
+	 * maps and collections.
+	 *
+	 * @param container
+	 */
+	private static void pruneEntries( final Object container ) {
+		final Iterator<?> values;
+		if( container instanceof Map<?,?> ) {
+			values = ((Map<?,?>) container).values().iterator();
+		} else if( container instanceof Collection<?> ) {
+			values = ((Collection<?>) container).iterator();
+		} else {
+			return;
+		}
+		try {
+			while( values.hasNext() ) {
+				if( isPrunable( values.next() ) ) {
+					values.remove();
+				}
+			}
+		} catch( final UnsupportedOperationException e ) {
+			// unmodifiable, it keeps its entries
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return <code>true</code> if the value is empty and should be removed
+	 */
+	private static boolean isPrunable( final Object value ) {
+		return (value == null) ||
+			((value instanceof String) && isEmpty( (String) value )) ||
+			((value instanceof Map<?,?>) && ((Map<?,?>) value).isEmpty()) ||
+			((value instanceof Collection<?>) && ((Collection<?>) value).isEmpty()) ||
+			(value.getClass().isArray() && (Array.getLength( value ) == 0));
+	}
+
+	/**
+	 * hash of the bytecode of a class, used to notice when a class changed
+	 * between runs.
+	 *
+	 * @param type
+	 * @return hex SHA-1 of the class file, or of the class name if the class file cannot be read
+	 * @throws IOException
+	 */
+	public static String getBytecodeHash(final Class<?> type) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance( "SHA-1" );
+		} catch( final NoSuchAlgorithmException e ) {
+			throw new IOException( e );
+		}
+		final InputStream in = openClassFile( type );
+		if( in == null ) {
+			digest.update( type.getName().getBytes( StandardCharsets.UTF_8 ) );
+		} else {
+			try {
+				final byte[] buffer = new byte[8192];
+				for( int n = in.read( buffer );n >= 0;n = in.read( buffer ) ) {
+					digest.update( buffer, 0, n );
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return toHex( digest.digest() );
+	}
+
+	/**
+	 * @param type
+	 * @return <code>true</code> if the class file of the class can be read,
+	 *         <code>false</code> for classes generated at run time
+	 * @throws IOException
+	 */
+	public static boolean hasBytecode(final Class<?> type) throws IOException {
+		final InputStream in = openClassFile( type );
+		if( in == null ) {
+			return false;
+		}
+		in.close();
+		return true;
+	}
+
+	/**
+	 * @param type
+	 * @return the class file of the class, or <code>null</code> if it can't be found
+	 */
+	private static InputStream openClassFile(final Class<?> type) {
+		final String name = type.getName();
+		return type.getResourceAsStream( name.substring( name.lastIndexOf( '.' ) + 1 ) + ".class" );
+	}
+
+	/**
+	 * @param bytes
+	 * @return lower case hex string
+	 */
+	public static String toHex(final byte[] bytes) {
+		final StringBuilder hex = new StringBuilder( bytes.length * 2 );
+		for( final byte b : bytes ) {
+			hex.append( Character.forDigit( (b >> 4) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+		}
+		return hex.toString();
+	}
+
     /**
      * utility method to delete a folder and all its contents.
      *
      * @param file
-     * @return
+     * @return <code>true</code> if everything was deleted
      */
     public static final boolean delete(final File file) {
-        boolean deleted = true;
-        if( file.isDirectory() ) {
-            for( final File f : file.listFiles() ) {
-                deleted &= delete(f);
+        return delete( file.toPath() ).isSuccessful();
+    }
+
+    /**
+     * delete a folder and all its contents. symbolic links are removed, never
+     * followed. sub folders, and the files of large folders in chunks, are
+     * deleted in parallel on a bounded pool shared by all deletes.
+     *
+     * @param root
+     * @return how many paths were deleted and which ones failed
+     */
+    public static final DeleteResult delete(final Path root) {
+        final DeleteResult result = new DeleteResult();
+        DELETE_POOL.invoke( new DeleteTask( root, result ) );
+        return result;
+    }
+
+    /**
+     * delete a folder and all its contents in the background, so that clean up
+     * can overlap the next fixture.
+     *
+     * @param root
+     * @return result available once the delete completes
+     */
+    public static final Future<DeleteResult> deleteAsync(final Path root) {
+        return DELETE_POOL.submit( new Callable<DeleteResult>() {
+            @Override public DeleteResult call() {
+                return delete( root );
+            }
+        });
+    }
+
+    /**
+     * deletes the contents of a folder, forking a task per sub folder and per
+     * chunk of files, then the folder itself.
+     */
+    private static final class DeleteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // files removed by one task
+        private static final int CHUNK = 256;
+
+        private final Path path;
+        private final DeleteResult result;
+
+        DeleteTask(final Path path, final DeleteResult result) {
+            this.path = path;
+            this.result = result;
+        }
+
+        @Override protected void compute() {
+            if( Files.isDirectory( path, LinkOption.NOFOLLOW_LINKS ) ) {
+                final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+                final List<Path> files = new ArrayList<Path>();
+                try {
+                    final DirectoryStream<Path> entries = Files.newDirectoryStream( path );
+                    try {
+                        for( final Path entry : entries ) {
+                            if( Files.isDirectory( entry, LinkOption.NOFOLLOW_LINKS ) ) {
+                                tasks.add( new DeleteTask( entry, result ) );
+                            } else {
+                                files.add( entry );
+                            }
+                        }
+                    } finally {
+                        entries.close();
+                    }
+                } catch( final DirectoryIteratorException e ) {
+                    // the folder can't be emptied, so deleting it would only fail again
+                    result.failed( path, e.getCause() );
+                    return;
+                } catch( final IOException e ) {
+                    result.failed( path, e );
+                    return;
+                }
+                for( int from=0;from<files.size();from+=CHUNK ) {
+                    tasks.add( new RemoveTask( files.subList( from, Math.min( files.size(), from + CHUNK ) ), result ) );
+                }
+                invokeAll( tasks );
             }
+            remove( Collections.singletonList( path ), result );
+        }
+    }
+
+    /**
+     * removes a chunk of the files of a folder.
+     */
+    private static final class RemoveTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final DeleteResult result;
+
+        RemoveTask(final List<Path> files, final DeleteResult result) {
+            this.files = files;
+            this.result = result;
+        }
+
+        @Override protected void compute() {
+            remove( files, result );
         }
-        return deleted & file.delete();
     }
 
+    /**
+     * @param entries files, links or empty folders to remove
+     * @param result
+     */
+    private static void remove(final List<Path> entries, final DeleteResult result) {
+        for( final Path entry : entries ) {
+            try {
+                Files.delete( entry );
+                result.deleted();
+            } catch( final IOException e ) {
+                result.failed( entry, e );
+            }
+        }
+    }
 
 }
@@ -0,0 +1,70 @@
+package assertions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+import test.TestFixture;
+
+/**
+ * how asserts are attributed to their call sites.
+ *
+ * @author patrick
+ *
+ */
+public class AssertTest implements TestFixture {
+
+	@Test public final void callerIsTheFrameBelowTheAssertFrames() {
+		final StackTraceElement[] stack = new StackTraceElement[] {
+				new StackTraceElement(Assert.class.getName() + "$1", "computeValue", "Assert.java", 93),
+				new StackTraceElement(Assert.class.getName(), "evaluate", "Assert.java", 212),
+				new StackTraceElement(Assert.class.getName(), "_assert", "Assert.java", 159),
+				new StackTraceElement("sample.Component", "update", "Component.java", 42),
+				new StackTraceElement("sample.User", "run", "User.java", 7) };
+		assertEquals("caller", "sample.Component.update(Component.java:42)", Assert.callerOf(stack));
+	}
+
+	@Test public final void callerIsUnknownWithoutAFrameBelow() {
+		assertEquals("only assert frames", "unknown", Assert.callerOf(new StackTraceElement[] {
+				new StackTraceElement(Assert.class.getName(), "_assert", "Assert.java", 159) }));
+		assertEquals("empty stack", "unknown", Assert.callerOf(new StackTraceElement[0]));
+	}
+
+	@Test public final void lazyAssertsAreCountedByCallSite() {
+		final Map<String, Long> before = Assert.getSiteCounts();
+		final BooleanSupplier holds = new BooleanSupplier() {
+			@Override public boolean getAsBoolean() {
+				return true;
+			}
+		};
+		for (int i = 0; i < 3; i++) {
+			Assert._assert(holds);
+		}
+		final Map<String, Long> after = Assert.getSiteCounts();
+		String site = null;
+		for (final String name : after.keySet()) {
+			if (name.startsWith(AssertTest.class.getName() + ".lazyAssertsAreCountedByCallSite(")) {
+				site = name;
+			}
+		}
+		if (!Assert.isEnabled()) {
+			assertEquals("not counted without -ea", before, after);
+			return;
+		}
+		assertTrue(after.toString(), site != null);
+		final Long previous = before.get(site);
+		assertEquals("count", 3L, after.get(site) - (previous == null ? 0L : previous));
+		assertFalse("sites counted by sampling are marked", site.endsWith(Assert.SAMPLED));
+	}
+
+	@Test public final void siteCountsAreASnapshot() {
+		final Map<String, Long> counts = Assert.getSiteCounts();
+		counts.put("sample.Component.update(Component.java:42)", 1L);
+		assertFalse("not added to the counters", Assert.sites.containsKey("sample.Component.update(Component.java:42)"));
+	}
+}
@@ -0,0 +1,170 @@
+package sample;
+
+import static test.utilities.Utilities.prune;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.BaseTestCase;
+import test.Operation;
+
+/**
+ * benchmarks pruning of wide and deep graphs. the functional test prunes the
+ * whole graph; the performance and thread safety tests prune the wide and
+ * the deep part as separate operations, so the latency reported for each
+ * operation covers the pruning alone, not generating the graph. the calls per
+ * second of a phase still include generating it.
+ *
+ * @author patrick
+ *
+ */
+public class PruneTest extends BaseTestCase<ForkJoinPool, Map<String, Serializable>> {
+
+    private static final int WIDTH = 1000;
+    private static final int DEPTH = 10000;
+
+    /* (non-Javadoc)
+     * @see test.BaseTestCase#getPerfTestResultMessage()
+     */
+    @Override protected final String getPerfTestResultMessage() {
+        return createPerformanceTestResultMessage("pruned", "graphs");
+    }
+
+    /* (non-Javadoc)
+     * @see test.BaseTestCase#getThreadSafetyResultMessage()
+     */
+    @Override protected final String getThreadSafetyResultMessage() {
+        return createThreadSafetyTestResultMessage( "pruned", "graphs");
+    }
+
+    /* (non-Javadoc)
+     * @see test.BaseTestCase#generateTestData(java.util.Map)
+     */
+    @Override protected final Map<String, Serializable> generateTestData(final Map<String, Object> params) throws Exception {
+        final HashMap<String, Serializable> graph = new HashMap<String, Serializable>();
+
+        // wide: many small maps that each keep one value
+        final ArrayList<Serializable> items = new ArrayList<Serializable>();
+        for( int i=0;i<WIDTH;i++ ) {
+            final TreeMap<String, Serializable> item = new TreeMap<String, Serializable>();
+            final LinkedHashMap<String, Serializable> nested = new LinkedHashMap<String, Serializable>();
+            nested.put( "nothing", null );
+            item.put( "id", Integer.toString( i ) );
+            item.put( "blank", "  " );
+            item.put( "empty", new ArrayList<Serializable>() );
+            item.put( "nested", nested );
+            item.put( "array", new String[0] );
+            items.add( item );
+        }
+        final HashMap<String, Serializable> wide = new HashMap<String, Serializable>();
+        wide.put( "items", items );
+        graph.put( "wide", wide );
+
+        // deep: one chain that ends in a blank value and one that ends in a real value
+        final HashMap<String, Serializable> deep = new HashMap<String, Serializable>();
+        deep.put( "empty", chain( " " ) );
+        deep.put( "kept", chain( "value" ) );
+        graph.put( "deep", deep );
+        return graph;
+    }
+
+    /**
+     * @param leaf
+     * @return chain of nested maps <code>DEPTH</code> levels deep
+     */
+    private static Serializable chain( final String leaf ) {
+        Serializable chain = leaf;
+        for( int i=0;i<DEPTH;i++ ) {
+            final LinkedHashMap<String, Serializable> level = new LinkedHashMap<String, Serializable>();
+            level.put( "next", chain );
+            chain = level;
+        }
+        return chain;
+    }
+
+    /* (non-Javadoc)
+     * @see test.BaseTestCase#getComponentUnderTest()
+     */
+    @Override protected final ForkJoinPool getComponentUnderTest() {
+        return ForkJoinPool.commonPool();
+    }
+
+    /* (non-Javadoc)
+     * @see test.BaseTestCase#verifyFunctionality(java.util.Map, java.lang.Object, java.lang.Object, java.util.concurrent.atomic.AtomicInteger)
+     */
+    @SuppressWarnings("unchecked")
+    @Override protected final void verifyFunctionality( final Map<String, Object> params, final ForkJoinPool pool, final Map<String, Serializable> graph, final AtomicInteger countsForThisUser ) throws Exception {
+        if( random.nextBoolean() ) {
+            prune( graph, pool );
+        } else {
+            prune( graph );
+        }
+        checkWide( (Map<String, Serializable>) graph.get( "wide" ) );
+        checkDeep( (Map<String, Serializable>) graph.get( "deep" ) );
+
+        // increment counter for user
+        countsForThisUser.addAndGet( 1 );
+    }
+
+    /**
+     * prune the wide part of the graph, sometimes in parallel
+     *
+     * @param params
+     * @param pool
+     * @param graph
+     * @param countsForThisUser
+     */
+    @SuppressWarnings("unchecked")
+    @Operation void pruneWide( final Map<String, Object> params, final ForkJoinPool pool, final Map<String, Serializable> graph, final AtomicInteger countsForThisUser ) {
+        final Map<String, Serializable> wide = (Map<String, Serializable>) graph.get( "wide" );
+        if( random.nextBoolean() ) {
+            prune( wide, pool );
+        } else {
+            prune( wide );
+        }
+        checkWide( wide );
+        countsForThisUser.addAndGet( 1 );
+    }
+
+    /**
+     * prune the deep part of the graph
+     *
+     * @param params
+     * @param pool
+     * @param graph
+     * @param countsForThisUser
+     */
+    @SuppressWarnings("unchecked")
+    @Operation void pruneDeep( final Map<String, Object> params, final ForkJoinPool pool, final Map<String, Serializable> graph, final AtomicInteger countsForThisUser ) {
+        final Map<String, Serializable> deep = (Map<String, Serializable>) graph.get( "deep" );
+        prune( deep );
+        checkDeep( deep );
+        countsForThisUser.addAndGet( 1 );
+    }
+
+    /**
+     * @param wide pruned
+     */
+    @SuppressWarnings("unchecked")
+    private void checkWide( final Map<String, Serializable> wide ) {
+        final ArrayList<Serializable> items = (ArrayList<Serializable>) wide.get( "items" );
+        assertEquals( "every item in the wide list should be kept", WIDTH, items.size() );
+        final Map<String, Serializable> item = (Map<String, Serializable>) items.get( random.nextInt( WIDTH ) );
+        assertEquals( "only the id should be left in each item", 1, item.size() );
+    }
+
+    /**
+     * @param deep pruned
+     */
+    private void checkDeep( final Map<String, Serializable> deep ) {
+        assertNull( "the chain ending in a blank value should be pruned", deep.get( "empty" ) );
+        assertNotNull( "the chain ending in a value should be kept", deep.get( "kept" ) );
+    }
+
+}
@@ -0,0 +1,111 @@
+package sample;
+
+import static test.utilities.Utilities.NON_ALPHA_NUMERIC_PATTERN;
+import static test.utilities.Utilities.UUID_PATTERN;
+import static test.utilities.Utilities.checkAlphanumericValues;
+import static test.utilities.Utilities.checkUuidValues;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+
+import test.BaseTestCase;
+
+/**
+ * benchmarks the bulk validators against the regex versions they replace.
+ *
+ * @author patrick
+ *
+ */
+public class ValidatorTest extends BaseTestCase<Pattern, CharSequence[]> {
+
+    private static final int BATCH = 10000;
+
+    private final AtomicLong regexNanos = new AtomicLong();
+    private final AtomicLong scannerNanos = new AtomicLong();
+
+    /* (non-Javadoc)
+     * @see test.BaseTestCase#getPerfTestResultMessage()
+     */
+    @Override protected final String getPerfTestResultMessage() {
+        return createPerformanceTestResultMessage("validated", "batches");
+    }
+
+    /* (non-Javadoc)
+     * @see test.BaseTestCase#getThreadSafetyResultMessage()
+     */
+    @Override protected final String getThreadSafetyResultMessage() {
+        return createThreadSafetyTestResultMessage( "validated", "batches");
+    }
+
+    /* (non-Javadoc)
+     * @see test.BaseTestCase#generateTestData(java.util.Map)
+     */
+    @Override protected final CharSequence[] generateTestData(final Map<String, Object> params) throws Exception {
+        final CharSequence[] values = new CharSequence[BATCH];
+        for( int i=0;i<BATCH;i++ ) {
+            switch( i % 4 ) {
+            case 0:
+                values[i] = UUID.randomUUID().toString();
+                break;
+            case 1:
+                values[i] = "account_" + i;
+                break;
+            case 2:
+                values[i] = "not valid " + i;
+                break;
+            default:
+                values[i] = UUID.randomUUID().toString().replace( '-', 'g' );
+            }
+        }
+        return values;
+    }
+
+    /* (non-Javadoc)
+     * @see test.BaseTestCase#getComponentUnderTest()
+     */
+    @Override protected final Pattern getComponentUnderTest() {
+        return Pattern.compile( UUID_PATTERN );
+    }
+
+    /* (non-Javadoc)
+     * @see test.BaseTestCase#verifyFunctionality(java.util.Map, java.lang.Object, java.lang.Object, java.util.concurrent.atomic.AtomicInteger)
+     */
+    @Override protected final void verifyFunctionality( final Map<String, Object> params, final Pattern uuid, final CharSequence[] values, final AtomicInteger countsForThisUser ) throws Exception {
+        // regex versions
+        long start = System.nanoTime();
+        final BitSet regexWords = new BitSet( BATCH );
+        final BitSet regexUuids = new BitSet( BATCH );
+        for( int i=0;i<BATCH;i++ ) {
+            regexWords.set( i, !NON_ALPHA_NUMERIC_PATTERN.matcher( values[i] ).find() );
+            regexUuids.set( i, uuid.matcher( values[i] ).matches() );
+        }
+        regexNanos.addAndGet( System.nanoTime() - start );
+
+        // bulk scanners
+        start = System.nanoTime();
+        final BitSet words = checkAlphanumericValues( values, null );
+        final BitSet uuids = checkUuidValues( values, null );
+        scannerNanos.addAndGet( System.nanoTime() - start );
+
+        assertEquals( "the scanner should agree with the regex for word characters", regexWords, words );
+        assertEquals( "the scanner should agree with the regex for UUIDs", regexUuids, uuids );
+
+        // increment counter for user
+        countsForThisUser.addAndGet( 1 );
+    }
+
+    /**
+     * report how the two approaches compare
+     */
+    @After public final void report() {
+        System.out.println( String.format( "regex validation took %.2f ms, bulk scanners took %.2f ms.",
+                regexNanos.get() / 1e6d, scannerNanos.get() / 1e6d ) );
+    }
+
+}
@@ -0,0 +1,80 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * measures the cold start of a trivial fixture, in this jvm and in a fresh
+ * one.
+ *
+ * @author patrick
+ *
+ */
+public class ColdStartTest implements TestFixture {
+
+	private static final int MAX_CALLS = 200;
+
+	@Test public final void inThisJvm() throws Exception {
+		final String report = ColdStart.measure(FixtureLifecycle.setUp(Settling.class), MAX_CALLS);
+		assertTrue(report, report.startsWith("cold start for 'Settling': first component built in "));
+	}
+
+	@Test public final void inFreshJvm() throws Exception {
+		assertNull("fresh jvm", ColdStart.inFreshJvm(Settling.class, MAX_CALLS));
+	}
+
+	@Test public final void failsInFreshJvm() throws Exception {
+		assertEquals("fresh jvm", String.format(ColdStart.FRESH_JVM_FAILED, 1),
+				ColdStart.inFreshJvm(NotSetUp.class, MAX_CALLS));
+	}
+
+	/**
+	 * needs its class set up before the first call
+	 */
+	public static class Settling extends BaseTestCase<StringBuilder, String> {
+		static String prefix = null;
+
+		@BeforeClass public static void prepareClass() {
+			prefix = "call ";
+		}
+
+		@Override protected String getPerfTestResultMessage() {
+			return createPerformanceTestResultMessage("built", "strings");
+		}
+
+		@Override protected String getThreadSafetyResultMessage() {
+			return createThreadSafetyTestResultMessage("built", "strings");
+		}
+
+		@Override protected String generateTestData(final Map<String, Object> params) {
+			return prefix.trim();
+		}
+
+		@Override protected StringBuilder getComponentUnderTest() {
+			return new StringBuilder();
+		}
+
+		@Override protected void verifyFunctionality(final Map<String, Object> params, final StringBuilder component,
+				final String testData, final AtomicInteger countsForThisUser) {
+			component.setLength(0);
+			component.append(prefix).append(testData);
+			countsForThisUser.incrementAndGet();
+		}
+	}
+
+	/**
+	 * can't be set up, so its fresh jvm fails
+	 */
+	public static class NotSetUp extends Settling {
+		@BeforeClass public static void breakClass() {
+			throw new IllegalStateException("can't set up");
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * allocation across slabs, strings, use after close, and how the harness
+ * frees the arena of a phase.
+ *
+ * @author patrick
+ *
+ */
+public class DataArenaTest implements TestFixture {
+
+	private DataArena arena = null;
+
+	@Before public final void createArena() {
+		// room for two points per slab
+		arena = new DataArena(64);
+	}
+
+	@After public final void closeArena() {
+		arena.close();
+	}
+
+	@Test public final void allocatesAcrossSlabs() {
+		final long[] handles = new long[10];
+		final Point point = new Point();
+		for (int i = 0; i < handles.length; i++) {
+			handles[i] = arena.allocate(Point.SIZE);
+			arena.view(point, handles[i]).x(i);
+			point.y(-i);
+		}
+		assertEquals("slabs", 5, arena.getSlabCount());
+		assertEquals("reserved", 5L * 64, arena.getReservedBytes());
+		for (int i = 0; i < handles.length; i++) {
+			arena.view(point, handles[i]);
+			assertEquals("x", (long) i, point.x());
+			assertEquals("y", (long) -i, point.y());
+		}
+	}
+
+	@Test public final void largeRecordsGetTheirOwnSlab() {
+		final long small = arena.allocate(Point.SIZE);
+		final long large = arena.allocate(100);
+		final long next = arena.allocate(Point.SIZE);
+		assertEquals("slabs", 2, arena.getSlabCount());
+		assertEquals("reserved", 64L + 104, arena.getReservedBytes());
+		assertEquals("next record shares the first slab", small >>> 32, next >>> 32);
+		final Point point = arena.view(new Point(), large);
+		point.putLong(92, Long.MAX_VALUE);
+		assertEquals("end of the large record", Long.MAX_VALUE, point.getLong(92));
+	}
+
+	@Test public final void strings() {
+		for (final String value : new String[] { "", "plain", "caf\u00e9 \u65e5\u672c", "longer than one slab of the arena, "
+				+ "so the string gets a slab of its own" }) {
+			assertEquals(value, value, arena.getString(arena.putString(value)));
+		}
+		assertEquals("null", -1L, arena.putString(null));
+		assertNull("null", arena.getString(-1));
+		final Point point = arena.view(new Point(), arena.allocate(Point.SIZE));
+		point.name("origin");
+		assertEquals("field", "origin", point.name());
+	}
+
+	@Test public final void flyweightFailsAfterClose() {
+		final Point point = arena.view(new Point(), arena.allocate(Point.SIZE));
+		point.x(1);
+		arena.close();
+		assertTrue("closed", arena.isClosed());
+		try {
+			point.x();
+			fail("read freed memory");
+		} catch (final IllegalStateException e) {
+			assertEquals("message", DataArena.CLOSED, e.getMessage());
+		}
+		try {
+			arena.allocate(Point.SIZE);
+			fail("allocated after close");
+		} catch (final IllegalStateException e) {
+			assertEquals("message", DataArena.CLOSED, e.getMessage());
+		}
+		try {
+			arena.view(point, point.handle());
+			fail("viewed after close");
+		} catch (final IllegalStateException e) {
+			assertEquals("message", DataArena.CLOSED, e.getMessage());
+		}
+	}
+
+	@Test public final void freedAtTheEndOfThePhase() {
+		final LoadCoordinatorTest.Counting fixture = new LoadCoordinatorTest.Counting();
+		HarnessMetrics.get().startPhase("DataArenaTest", "functional");
+		final DataArena used = fixture.getDataArena();
+		used.putString("data");
+		fixture.freeDataArena("functional");
+		assertTrue("closed", used.isClosed());
+		assertNotSame("new arena for the next phase", used, fixture.getDataArena());
+		fixture.freeDataArena("functional");
+	}
+
+	@Test public final void notFreedWhileUsersRun() {
+		final LoadCoordinatorTest.Counting fixture = new LoadCoordinatorTest.Counting();
+		final HarnessMetrics metrics = HarnessMetrics.get();
+		metrics.startPhase("DataArenaTest", "thread safety");
+		final DataArena used = fixture.getDataArena();
+		final long handle = used.putString("still read");
+		metrics.userStarted();
+		try {
+			fixture.freeDataArena("thread safety");
+			assertFalse("left to the collector", used.isClosed());
+			assertEquals("still readable", "still read", used.getString(handle));
+			assertNotSame("new arena for the next phase", used, fixture.getDataArena());
+		} finally {
+			metrics.userFinished();
+			fixture.freeDataArena("thread safety");
+		}
+	}
+
+	/**
+	 * two longs and the handle of a name
+	 */
+	static final class Point extends DataArena.Flyweight {
+		static final int SIZE = 24;
+
+		long x() {
+			return getLong(0);
+		}
+
+		void x(final long x) {
+			putLong(0, x);
+		}
+
+		long y() {
+			return getLong(8);
+		}
+
+		void y(final long y) {
+			putLong(8, y);
+		}
+
+		String name() {
+			return getString(16);
+		}
+
+		void name(final String name) {
+			putString(16, name);
+		}
+	}
+}
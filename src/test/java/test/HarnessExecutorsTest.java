@@ -0,0 +1,94 @@
+package test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * checks that fixtures don't share executors and that users rejected by a
+ * bounded executor fail the thread safety test.
+ *
+ * @author patrick
+ *
+ */
+public class HarnessExecutorsTest implements TestFixture {
+
+	@Test public final void checkedOutExecutorsAreNotShared() {
+		final ExecutorService first = HarnessExecutors.checkout(ExecutorStrategy.FIXED, 0);
+		final ExecutorService second = HarnessExecutors.checkout(ExecutorStrategy.FIXED, 0);
+		try {
+			assertNotSame("checked out twice", first, second);
+			HarnessExecutors.release(first);
+			final ExecutorService third = HarnessExecutors.checkout(ExecutorStrategy.FIXED, 0);
+			assertSame("reused after release", first, third);
+		} finally {
+			HarnessExecutors.release(first);
+			HarnessExecutors.release(second);
+		}
+	}
+
+	@Test public final void rejectedUsersFailThePhase() throws Exception {
+		final Overflowing fixture = new Overflowing();
+		fixture.initializeTestServices();
+		try {
+			fixture.verifyComponent();
+			fail("the thread safety test passed without every user");
+		} catch (final AssertionError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("rejected"));
+		} finally {
+			fixture.releaseTestServices();
+		}
+	}
+
+	/**
+	 * runs more users than a bounded executor with a queue of one can take
+	 */
+	public static class Overflowing extends BaseTestCase<AtomicInteger, Integer> {
+
+		@Override protected String getPerfTestResultMessage() {
+			return createPerformanceTestResultMessage("counted", "calls");
+		}
+
+		@Override protected String getThreadSafetyResultMessage() {
+			return createThreadSafetyTestResultMessage("counted", "calls");
+		}
+
+		@Override protected Map<String, Object> getPerformanceTestingParameters() {
+			final Map<String, Object> params = super.getPerformanceTestingParameters();
+			params.put(NUM_ITEMS, 5);
+			params.put(TRIALS, 2);
+			return params;
+		}
+
+		@Override protected Map<String, Object> getThreadSafetyTestingParameters() throws Exception {
+			final Map<String, Object> params = super.getThreadSafetyTestingParameters();
+			params.put(NUMBER_OF_SIMULTANEOUS_USERS, 4 * Runtime.getRuntime().availableProcessors() + 2);
+			params.put(EXECUTOR_STRATEGY, ExecutorStrategy.BOUNDED);
+			params.put(EXECUTOR_QUEUE_SIZE, 1);
+			return params;
+		}
+
+		@Override protected Integer generateTestData(final Map<String, Object> params) {
+			return 1;
+		}
+
+		@Override protected AtomicInteger getComponentUnderTest() {
+			return new AtomicInteger();
+		}
+
+		@Override protected void verifyFunctionality(final Map<String, Object> params, final AtomicInteger component,
+				final Integer testData, final AtomicInteger countsForThisUser) throws Exception {
+			// keep the pool busy while the other users are submitted
+			Thread.sleep(10);
+			component.addAndGet(testData);
+			countsForThisUser.incrementAndGet();
+		}
+	}
+}
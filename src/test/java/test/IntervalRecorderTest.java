@@ -0,0 +1,96 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.utilities.Utilities;
+
+/**
+ * records a few intervals and reads back the log and csv they are written to.
+ *
+ * @author patrick
+ *
+ */
+public class IntervalRecorderTest implements TestFixture {
+
+	private static final int CALLS = 5000;
+
+	private Path dir = null;
+
+	@Before public final void useTemporaryFolder() throws Exception {
+		dir = Files.createTempDirectory("intervals");
+		System.setProperty(IntervalRecorder.INTERVAL_DIR, dir.toString());
+	}
+
+	@After public final void deleteTemporaryFolder() {
+		System.clearProperty(IntervalRecorder.INTERVAL_DIR);
+		Utilities.delete(dir);
+	}
+
+	@Test public final void writesLogAndCsv() throws Exception {
+		final IntervalRecorder recorder = new IntervalRecorder(5);
+		recorder.start();
+		final Thread other = new Thread(new Runnable() {
+			@Override public void run() {
+				record(recorder);
+			}
+		});
+		other.start();
+		record(recorder);
+		other.join();
+		final List<IntervalRecorder.Interval> intervals = recorder.stop();
+		final String message = recorder.write("Recorded", "thread safety");
+		assertTrue(message, message.startsWith(String.format("wrote %d intervals of 5 ms", intervals.size())));
+
+		final List<String> log = Files.readAllLines(dir.resolve("Recorded-thread-safety.ilog"), StandardCharsets.UTF_8);
+		assertTrue(log.get(0), log.get(0).startsWith("# Recorded thread safety"));
+		assertEquals("log header", "start_seconds,length_seconds,max_ms,histogram", log.get(2));
+		assertEquals("log lines", intervals.size() + 3, log.size());
+		long logged = 0;
+		for (final String line : log.subList(3, log.size())) {
+			final String[] fields = line.split(",");
+			assertEquals(line, 4, fields.length);
+			logged += LatencyHistogram.decode(Base64.getDecoder().decode(fields[3])).getTotalCount();
+		}
+		assertEquals("calls in the log", 2L * CALLS, logged);
+
+		final List<String> csv = Files.readAllLines(dir.resolve("Recorded-thread-safety.csv"), StandardCharsets.UTF_8);
+		assertEquals("csv header", "seconds,calls,calls_per_second,p50_ms,p90_ms,p99_ms,max_ms,gc_ms", csv.get(0));
+		assertEquals("csv lines", intervals.size() + 1, csv.size());
+		long counted = 0;
+		for (final String line : csv.subList(1, csv.size())) {
+			final String[] fields = line.split(",");
+			assertEquals(line, 8, fields.length);
+			counted += Long.parseLong(fields[1]);
+		}
+		assertEquals("calls in the csv", 2L * CALLS, counted);
+	}
+
+	/**
+	 * record calls spread over a few intervals
+	 *
+	 * @param recorder
+	 */
+	private static void record(final IntervalRecorder recorder) {
+		for (int i = 0; i < CALLS; i++) {
+			recorder.record(1000 + i);
+			if (i % 500 == 0) {
+				try {
+					Thread.sleep(2);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+}
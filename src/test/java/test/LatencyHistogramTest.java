@@ -0,0 +1,86 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * bucket boundaries, encoding and moving values between histograms.
+ *
+ * @author patrick
+ *
+ */
+public class LatencyHistogramTest implements TestFixture {
+
+	@Test public final void bucketBoundaries() {
+		assertEquals("63", 63, LatencyHistogram.indexOf(63));
+		assertEquals("63 highest", 63L, LatencyHistogram.highestValueOf(63));
+		assertEquals("64", 64, LatencyHistogram.indexOf(64));
+		assertEquals("65", 64, LatencyHistogram.indexOf(65));
+		assertEquals("64 highest", 65L, LatencyHistogram.highestValueOf(64));
+		assertEquals("66", 65, LatencyHistogram.indexOf(66));
+		final int last = LatencyHistogram.indexOf(Long.MAX_VALUE);
+		assertEquals("max highest", Long.MAX_VALUE, LatencyHistogram.highestValueOf(last));
+		assertEquals("max is the last bucket", last, LatencyHistogram.indexOf(LatencyHistogram.highestValueOf(last - 1) + 1));
+	}
+
+	@Test public final void bucketsCoverEveryValue() {
+		final Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			final long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+			final int index = LatencyHistogram.indexOf(value);
+			final long highest = LatencyHistogram.highestValueOf(index);
+			assertTrue(value + " below the highest value of its bucket", value <= highest);
+			assertTrue(value + " above the previous bucket", (index == 0) || (value > LatencyHistogram.highestValueOf(index - 1)));
+			assertTrue(value + " within 1/32", highest - value <= value / 32);
+		}
+	}
+
+	@Test public final void encodeRoundTrip() throws Exception {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		final Random random = new Random(7);
+		for (int i = 0; i < 10000; i++) {
+			histogram.record(Math.abs(random.nextLong()) >>> random.nextInt(50));
+		}
+		histogram.record(0);
+		histogram.record(Long.MAX_VALUE);
+		final LatencyHistogram decoded = LatencyHistogram.decode(histogram.encode());
+		assertEquals("total", histogram.getTotalCount(), decoded.getTotalCount());
+		assertEquals("max", histogram.getMax(), decoded.getMax());
+		for (final double p : new double[] { 0d, 0.5d, 0.9d, 0.99d, 0.999d, 1d }) {
+			assertEquals("p" + p, histogram.getValueAtPercentile(p), decoded.getValueAtPercentile(p));
+		}
+		assertEquals("empty", 0L, LatencyHistogram.decode(new LatencyHistogram().encode()).getTotalCount());
+	}
+
+	@Test public final void copyAndReset() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (long nanos = 1; nanos <= 1000; nanos++) {
+			histogram.record(nanos * 1000);
+		}
+		final LatencyHistogram copy = histogram.copyAndReset();
+		assertEquals("copied", 1000L, copy.getTotalCount());
+		assertEquals("copied max", 1000000L, copy.getMax());
+		assertEquals("reset", 0L, histogram.getTotalCount());
+		assertEquals("reset max", 0L, histogram.getMax());
+		assertEquals("reset percentile", 0L, histogram.getValueAtPercentile(0.5d));
+		histogram.record(5);
+		assertEquals("recorded after reset", 1L, histogram.getTotalCount());
+		assertEquals("copy unchanged", 1000L, copy.getTotalCount());
+	}
+
+	@Test public final void recordByOwnerMatchesRecord() {
+		final LatencyHistogram shared = new LatencyHistogram();
+		final LatencyHistogram owned = new LatencyHistogram();
+		for (long nanos = -5; nanos < 100000; nanos += 37) {
+			shared.record(nanos);
+			owned.recordByOwner(nanos);
+		}
+		assertEquals("total", shared.getTotalCount(), owned.getTotalCount());
+		assertEquals("max", shared.getMax(), owned.getMax());
+		assertEquals("p99", shared.getValueAtPercentile(0.99d), owned.getValueAtPercentile(0.99d));
+	}
+}
@@ -0,0 +1,101 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * runs trivial fixtures in two worker jvms and checks what the coordinator
+ * gets back from them.
+ *
+ * @author patrick
+ *
+ */
+public class LoadCoordinatorTest implements TestFixture {
+
+	private static final int USERS = 4;
+	private static final int CALLS = 25;
+	private static final long TIMEOUT = 120;
+
+	@Test public final void mergesWorkers() throws Exception {
+		final LoadCoordinator.Result result = LoadCoordinator.run(Counting.class, 2, USERS,
+				Collections.<String>emptyList(), TIMEOUT);
+		assertTrue(result.failures.toString(), result.failures.isEmpty());
+		assertEquals("worker reports", 2, result.workerReports.size());
+		assertEquals("calls", (long) USERS * CALLS, result.calls);
+		assertEquals("latencies", (long) USERS * CALLS, result.latencies.getTotalCount());
+	}
+
+	@Test public final void reportsSetUpFailures() throws Exception {
+		final LoadCoordinator.Result result = LoadCoordinator.run(BrokenSetUp.class, 2, USERS,
+				Collections.<String>emptyList(), TIMEOUT);
+		assertEquals("failures", 2, result.failures.size());
+		assertTrue(result.failures.get(0), result.failures.get(0).contains(BrokenSetUp.BROKEN));
+	}
+
+	/**
+	 * counts its calls, and only works once junit set it up
+	 */
+	public static class Counting extends BaseTestCase<AtomicInteger, Integer> {
+		private static boolean classReady = false;
+		private boolean ready = false;
+
+		@BeforeClass public static void prepareClass() {
+			classReady = true;
+		}
+
+		@Before public void prepare() {
+			ready = true;
+		}
+
+		@Override protected String getPerfTestResultMessage() {
+			return createPerformanceTestResultMessage("counted", "calls");
+		}
+
+		@Override protected String getThreadSafetyResultMessage() {
+			return createThreadSafetyTestResultMessage("counted", "calls");
+		}
+
+		// the users of the thread safety test run with these
+		@Override protected Map<String, Object> getPerformanceTestingParameters() {
+			final Map<String, Object> params = super.getPerformanceTestingParameters();
+			params.put(NUM_ITEMS, CALLS);
+			// with trials every user makes exactly NUM_ITEMS calls
+			params.put(TRIALS, 2);
+			return params;
+		}
+
+		@Override protected Integer generateTestData(final Map<String, Object> params) {
+			return 1;
+		}
+
+		@Override protected AtomicInteger getComponentUnderTest() {
+			return new AtomicInteger();
+		}
+
+		@Override protected void verifyFunctionality(final Map<String, Object> params, final AtomicInteger component,
+				final Integer testData, final AtomicInteger countsForThisUser) {
+			assertTrue("set up by junit", classReady && ready);
+			component.addAndGet(testData);
+			countsForThisUser.incrementAndGet();
+		}
+	}
+
+	/**
+	 * fails in its set up
+	 */
+	public static class BrokenSetUp extends Counting {
+		static final String BROKEN = "can't set up";
+
+		@Before public void breakDown() {
+			throw new IllegalStateException(BROKEN);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * which classes can be fingerprinted by their bytecode.
+ *
+ * @author patrick
+ *
+ */
+public class ResultCacheTest implements TestFixture {
+
+	@Test public final void classFilesCanBeRead() throws Exception {
+		assertNull("fixture and jvm class", ResultCache.findUnreadable(ResultCacheTest.class, ArrayList.class));
+		assertNull("superclass", ResultCache.findUnreadable(Child.class));
+	}
+
+	@Test public final void generatedClassesCanNotBeRead() throws Exception {
+		final Object proxy = Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Runnable.class },
+				new InvocationHandler() {
+					@Override public Object invoke(final Object target, final Method method, final Object[] args) {
+						return null;
+					}
+				});
+		assertEquals("proxy", proxy.getClass(), ResultCache.findUnreadable(ResultCacheTest.class, proxy.getClass()));
+	}
+
+	/**
+	 * superclass of the child
+	 */
+	static class Parent {
+	}
+
+	/**
+	 * a class with a superclass of its own
+	 */
+	static final class Child extends Parent {
+	}
+}
@@ -0,0 +1,99 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import test.utilities.Utilities;
+
+/**
+ * round trips, invalidation and damaged snapshots.
+ *
+ * @author patrick
+ *
+ */
+public class SnapshotStoreTest implements TestFixture {
+
+	private Path dir = null;
+	private final AtomicInteger generated = new AtomicInteger();
+
+	@Before public final void useTemporaryFolder() throws Exception {
+		dir = Files.createTempDirectory("snapshots");
+		System.setProperty(SnapshotStore.SNAPSHOT_DIR, dir.toString());
+	}
+
+	@After public final void deleteTemporaryFolder() {
+		System.clearProperty(SnapshotStore.SNAPSHOT_DIR);
+		Utilities.delete(dir);
+	}
+
+	@Test public final void roundTrip() throws Exception {
+		final ArrayList<String> first = SnapshotStore.load(getClass(), key(1), generator());
+		final ArrayList<String> second = SnapshotStore.load(getClass(), key(1), generator());
+		assertEquals("generated", 1, generated.get());
+		assertEquals("data", first, second);
+		assertNotSame("fresh copy", first, second);
+	}
+
+	@Test public final void keyChangesInvalidate() throws Exception {
+		SnapshotStore.load(getClass(), key(1), generator());
+		SnapshotStore.load(getClass(), key(2), generator());
+		assertEquals("generated", 2, generated.get());
+	}
+
+	@Test public final void damagedSnapshotIsGeneratedAgain() throws Exception {
+		final Path file = SnapshotStore.getSnapshotFile(getClass(), key(1));
+		Files.createDirectories(dir);
+		Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		final ArrayList<String> data = SnapshotStore.load(getClass(), key(1), generator());
+		assertEquals("generated", 1, generated.get());
+		assertEquals("data", Collections.singletonList("value"), data);
+		SnapshotStore.load(getClass(), key(1), generator());
+		assertEquals("saved again", 1, generated.get());
+	}
+
+	@Test public final void notSerializableElementsAreGenerated() throws Exception {
+		final Object element = new Object();
+		final ArrayList<Object> data = SnapshotStore.load(getClass(), key(1), new Callable<ArrayList<Object>>() {
+			@Override public ArrayList<Object> call() {
+				final ArrayList<Object> data = new ArrayList<Object>();
+				data.add(element);
+				return data;
+			}
+		});
+		assertSame("generated data", element, data.get(0));
+		final File[] left = dir.toFile().listFiles();
+		assertTrue("no files left", (left == null) || (left.length == 0));
+		assertFalse("no snapshot", Files.exists(SnapshotStore.getSnapshotFile(getClass(), key(1))));
+	}
+
+	private static Map<String, ?> key(final int version) {
+		return Collections.singletonMap("version", version);
+	}
+
+	private Callable<ArrayList<String>> generator() {
+		return new Callable<ArrayList<String>>() {
+			@Override public ArrayList<String> call() {
+				generated.incrementAndGet();
+				final ArrayList<String> data = new ArrayList<String>();
+				data.add("value");
+				return data;
+			}
+		};
+	}
+}
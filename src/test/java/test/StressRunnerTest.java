@@ -0,0 +1,131 @@
+package test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * runs the stress test on a counter that loses updates and checks that the
+ * harness reports them.
+ *
+ * @author patrick
+ *
+ */
+public class StressRunnerTest implements TestFixture {
+
+	@Test public final void reportsLostUpdates() throws Exception {
+		final LostUpdate fixture = new LostUpdate();
+		fixture.initializeTestServices();
+		try {
+			fixture.verifyComponent();
+			fail("the stress test did not report the lost updates");
+		} catch (final AssertionError e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("the stress test observed forbidden outcomes"));
+			assertTrue(e.getMessage(), e.getMessage().contains(LostUpdate.LOST));
+		} finally {
+			fixture.releaseTestServices();
+		}
+	}
+
+	@Test public final void passesWithoutLostUpdates() throws Exception {
+		final NoLostUpdate fixture = new NoLostUpdate();
+		fixture.initializeTestServices();
+		try {
+			fixture.verifyComponent();
+		} finally {
+			fixture.releaseTestServices();
+		}
+	}
+
+	/**
+	 * a counter without any synchronization
+	 */
+	static final class Counter {
+		int value = 0;
+	}
+
+	/**
+	 * two actors increment a plain counter. each returns the value it wrote,
+	 * so both returning 1 means one increment was lost.
+	 */
+	public static class LostUpdate extends BaseTestCase<Counter, Integer> {
+		static final String LOST = "[1, 1]";
+
+		@Override protected String getPerfTestResultMessage() {
+			return createPerformanceTestResultMessage("incremented", "counters");
+		}
+
+		@Override protected String getThreadSafetyResultMessage() {
+			return createThreadSafetyTestResultMessage("incremented", "counters");
+		}
+
+		@Override protected Map<String, Object> getPerformanceTestingParameters() {
+			final Map<String, Object> params = super.getPerformanceTestingParameters();
+			params.put(NUM_ITEMS, 5);
+			params.put(TRIALS, 2);
+			return params;
+		}
+
+		@Override protected Map<String, Object> getThreadSafetyTestingParameters() throws Exception {
+			final Map<String, Object> params = super.getThreadSafetyTestingParameters();
+			params.put(NUMBER_OF_SIMULTANEOUS_USERS, 2);
+			params.put(STRESS_ROUNDS, 20000);
+			return params;
+		}
+
+		@Override protected Integer generateTestData(final Map<String, Object> params) {
+			return 1;
+		}
+
+		@Override protected Counter getComponentUnderTest() {
+			return new Counter();
+		}
+
+		@Override protected void verifyFunctionality(final Map<String, Object> params, final Counter component,
+				final Integer testData, final AtomicInteger countsForThisUser) {
+			component.value += testData;
+			countsForThisUser.incrementAndGet();
+		}
+
+		@Actor int first(final Counter counter) {
+			return increment(counter);
+		}
+
+		@Actor int second(final Counter counter) {
+			return increment(counter);
+		}
+
+		/**
+		 * read, give the other actor a chance to run, then write
+		 *
+		 * @param counter
+		 * @return the value written
+		 */
+		int increment(final Counter counter) {
+			final int seen = counter.value;
+			Thread.yield();
+			counter.value = seen + 1;
+			return seen + 1;
+		}
+
+		@Override protected Outcome classifyOutcome(final String outcome) {
+			return LOST.equals(outcome) ? Outcome.FORBIDDEN : Outcome.ACCEPTABLE;
+		}
+	}
+
+	/**
+	 * the same actors, incrementing under the counter's lock
+	 */
+	public static class NoLostUpdate extends LostUpdate {
+
+		@Override int increment(final Counter counter) {
+			synchronized (counter) {
+				return super.increment(counter);
+			}
+		}
+	}
+}
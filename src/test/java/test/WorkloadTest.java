@@ -0,0 +1,122 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * how users are split between weighted operations, and how operations are
+ * called and measured.
+ *
+ * @author patrick
+ *
+ */
+public class WorkloadTest implements TestFixture {
+
+	@Test public final void assignsOneUserToTheHeaviest() throws Exception {
+		assertEquals("1 user", counts(0, 1, 0), assign(1));
+	}
+
+	@Test public final void assignsEveryOperationWhenThereAreEnoughUsers() throws Exception {
+		assertEquals("3 users", counts(1, 1, 1), assign(3));
+		assertEquals("10 users", counts(1, 8, 1), assign(10));
+	}
+
+	@Test public final void assignsInProportion() throws Exception {
+		assertEquals("100 users", counts(1, 95, 4), assign(100));
+	}
+
+	@Test public final void invokesAndRecordsOperations() throws Exception {
+		final Workload workload = Workload.of(Weighted.class);
+		final Weighted fixture = new Weighted();
+		final AtomicInteger counter = new AtomicInteger();
+		final Map<String, Object> params = Collections.<String, Object>emptyMap();
+		workload.get("read").invoke(fixture, params, "component", "data", counter);
+		assertEquals("called", 1, counter.get());
+		assertSame("component", "component", fixture.component);
+		final Thread other = new Thread(new Runnable() {
+			@Override public void run() {
+				workload.get("read").record(1000);
+			}
+		});
+		other.start();
+		other.join();
+		workload.get("read").record(2000);
+		assertTrue(workload.report(1000000000L), workload.report(1000000000L).contains("operation 'read' (weight 95.0%): 2 calls"));
+		workload.reset();
+		assertTrue(workload.report(1000000000L), workload.report(1000000000L).contains("operation 'read' (weight 95.0%): 0 calls"));
+	}
+
+	@Test public final void rethrowsWhatTheOperationThrows() throws Exception {
+		final Workload workload = Workload.of(Weighted.class);
+		try {
+			workload.get("delete").invoke(new Weighted(), Collections.<String, Object>emptyMap(), "component", "data",
+					new AtomicInteger());
+			fail("delete did not throw");
+		} catch (final UnsupportedOperationException e) {
+			assertEquals("message", Weighted.NOT_DELETED, e.getMessage());
+		}
+	}
+
+	/**
+	 * @param users
+	 * @return users per operation, by operation name
+	 * @throws Exception
+	 */
+	private static Map<String, Integer> assign(final int users) throws Exception {
+		final Workload workload = Workload.of(Weighted.class);
+		final Map<String, Integer> counts = counts(0, 0, 0);
+		for (int user = 0; user < users; user++) {
+			final String name = workload.assign(user, users).name;
+			counts.put(name, counts.get(name) + 1);
+		}
+		return counts;
+	}
+
+	/**
+	 * @param delete
+	 * @param read
+	 * @param update
+	 * @return users per operation, by operation name
+	 */
+	private static Map<String, Integer> counts(final int delete, final int read, final int update) {
+		final Map<String, Integer> counts = new HashMap<String, Integer>();
+		counts.put("delete", delete);
+		counts.put("read", read);
+		counts.put("update", update);
+		return counts;
+	}
+
+	/**
+	 * reads mostly, sometimes updates and rarely deletes
+	 */
+	static final class Weighted {
+		static final String NOT_DELETED = "can't delete";
+
+		Object component = null;
+
+		@Operation(weight = 95) void read(final Map<String, Object> params, final String component,
+				final String testData, final AtomicInteger countsForThisUser) {
+			this.component = component;
+			countsForThisUser.incrementAndGet();
+		}
+
+		@Operation(weight = 4) void update(final Map<String, Object> params, final String component,
+				final String testData, final AtomicInteger countsForThisUser) {
+			countsForThisUser.incrementAndGet();
+		}
+
+		@Operation(weight = 1) void delete(final Map<String, Object> params, final String component,
+				final String testData, final AtomicInteger countsForThisUser) {
+			throw new UnsupportedOperationException(NOT_DELETED);
+		}
+	}
+}
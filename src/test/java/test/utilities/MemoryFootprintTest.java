@@ -0,0 +1,69 @@
+package test.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import test.TestFixture;
+
+/**
+ * checks that shared objects are left out of the retained size and that the
+ * result says how it was measured.
+ *
+ * @author patrick
+ *
+ */
+public class MemoryFootprintTest implements TestFixture {
+
+    // reachable from every holder, retained by none of them
+    private static final long[] SHARED = new long[10000];
+
+    @Test public final void sharedObjectsAreNotCounted() throws Exception {
+        final Holder holder = new Holder();
+        final MemoryFootprint.Footprint footprint = MemoryFootprint.measure( holder, new Callable<Holder>() {
+            @Override public Holder call() {
+                return new Holder();
+            }
+        });
+        assertEquals( "method", MemoryFootprint.FIELD_LAYOUT, footprint.method );
+        assertEquals( "retained", MemoryFootprint.deepSizeOf( holder ) - MemoryFootprint.deepSizeOf( SHARED ), footprint.bytes );
+        assertTrue( "own array", footprint.bytes > 100 * 8 );
+        assertTrue( "shared array", footprint.bytes < 10000 * 8 );
+    }
+
+    @Test public final void sameObjectIsAllShared() throws Exception {
+        final Holder holder = new Holder();
+        final MemoryFootprint.Footprint footprint = MemoryFootprint.measure( holder, new Callable<Holder>() {
+            @Override public Holder call() {
+                return holder;
+            }
+        });
+        assertEquals( "retained", 0L, footprint.bytes );
+    }
+
+    @Test public final void fallbackIsReported() throws Exception {
+        final List<String> list = new ArrayList<String>();
+        final MemoryFootprint.Footprint footprint = MemoryFootprint.measure( list, new Callable<List<String>>() {
+            @Override public List<String> call() {
+                return new ArrayList<String>();
+            }
+        });
+        // the jvm's own classes can't be walked since java 9 made them inaccessible
+        final boolean walkable = MemoryFootprint.deepSizeOf( list ) >= 0;
+        assertEquals( "method", walkable ? MemoryFootprint.FIELD_LAYOUT : MemoryFootprint.HEAP_DELTA, footprint.method );
+        assertTrue( "size", footprint.bytes >= 0 );
+    }
+
+    /**
+     * holds an array of its own and a shared one
+     */
+    static final class Holder {
+        final long[] own = new long[100];
+        final long[] shared = SHARED;
+    }
+}
@@ -0,0 +1,44 @@
+package test.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static test.utilities.Statistics.tCdf;
+import static test.utilities.Statistics.tQuantile;
+
+import org.junit.Test;
+
+import test.TestFixture;
+
+/**
+ * checks the t distribution against published quantiles.
+ *
+ * @author patrick
+ *
+ */
+public class StatisticsTest implements TestFixture {
+
+    // probability, degrees of freedom, quantile
+    private static final double[][] QUANTILES = {
+        { 0.95, 1, 6.3138 }, { 0.975, 1, 12.7062 }, { 0.995, 1, 63.6567 },
+        { 0.975, 2, 4.3027 }, { 0.995, 2, 9.9248 },
+        { 0.995, 3, 5.8409 }, { 0.975, 4, 2.7764 }, { 0.995, 5, 4.0321 },
+        { 0.995, 10, 3.1693 }, { 0.975, 29, 2.0452 }, { 0.995, 30, 2.7500 },
+        { 0.995, 31, 2.7440 }, { 0.995, 60, 2.6603 }, { 0.975, 120, 1.9799 },
+    };
+
+    @Test public final void quantiles() {
+        for( final double[] row : QUANTILES ) {
+            final String name = String.format( "t(%.3f, %d)", row[0], (int) row[1] );
+            assertEquals( name, row[2], tQuantile( row[0], (int) row[1] ), 5e-4 * row[2] );
+            assertEquals( name, -row[2], tQuantile( 1 - row[0], (int) row[1] ), 5e-4 * row[2] );
+        }
+    }
+
+    @Test public final void distribution() {
+        assertEquals( "median", 0.5, tCdf( 0, 7 ), 1e-12 );
+        for( final double[] row : QUANTILES ) {
+            if( row[1] <= 30 ) {
+                assertEquals( "cdf", row[0], tCdf( tQuantile( row[0], (int) row[1] ), (int) row[1] ), 1e-9 );
+            }
+        }
+    }
+}
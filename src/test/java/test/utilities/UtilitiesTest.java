@@ -0,0 +1,214 @@
+package test.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static test.utilities.Utilities.checkAlphanumericValues;
+import static test.utilities.Utilities.checkUuidValues;
+import static test.utilities.Utilities.prune;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import test.TestFixture;
+
+/**
+ * checks how the delimited validators split values and fill their results,
+ * what pruning removes from a graph, and deleting folders.
+ *
+ * @author patrick
+ *
+ */
+public class UtilitiesTest implements TestFixture {
+
+    private static final String UUID = "123e4567-e89b-12d3-a456-426614174000";
+
+    @Test public final void emptyValues() {
+        assertEquals( "leading", bits( true, true ), checkAlphanumericValues( ",a", ',', null ) );
+        assertEquals( "trailing", bits( true, true ), checkAlphanumericValues( "a,", ',', null ) );
+        assertEquals( "between", bits( true, true, true ), checkAlphanumericValues( "a,,b", ',', null ) );
+        assertEquals( "none", bits(), checkAlphanumericValues( "", ',', null ) );
+        assertEquals( "not a uuid", bits( false, true, false ), checkUuidValues( "," + UUID + ",", ',', null ) );
+        assertEquals( "utf-8 leading", bits( true, true ), checkAlphanumericValues( utf8( ",a" ), (byte) ',', null ) );
+        assertEquals( "utf-8 trailing", bits( true, true ), checkAlphanumericValues( utf8( "a," ), (byte) ',', null ) );
+        assertEquals( "utf-8 none", bits(), checkAlphanumericValues( utf8( "" ), (byte) ',', null ) );
+    }
+
+    @Test public final void reusedResults() {
+        final BitSet results = new BitSet();
+        checkAlphanumericValues( "a,b,c,d", ',', results );
+        assertEquals( "sequence", bits( true, false ), checkAlphanumericValues( "a,b-", ',', results ) );
+        checkAlphanumericValues( "a,b,c,d", ',', results );
+        assertEquals( "utf-8", bits( false, true ), checkAlphanumericValues( utf8( "a-,b" ), (byte) ',', results ) );
+        checkAlphanumericValues( "a,b,c,d", ',', results );
+        assertEquals( "array", bits( true ), checkAlphanumericValues( new CharSequence[] { "a" }, results ) );
+    }
+
+    @Test public final void multiByteCharacters() {
+        assertEquals( "words", bits( false, true, false ),
+                checkAlphanumericValues( utf8( "caf\u00e9,cafe,\u65e5\u672c" ), (byte) ',', null ) );
+        assertEquals( "uuids", bits( true, false ),
+                checkUuidValues( utf8( UUID + "," + UUID.replace( 'a', '\u00e4' ) ), (byte) ',', null ) );
+        assertEquals( "chars", bits( false, true ),
+                checkAlphanumericValues( CharBuffer.wrap( "caf\u00e9,cafe" ), ',', null ) );
+    }
+
+    @Test public final void positionIsKept() {
+        final ByteBuffer buffer = utf8( "x-,a,b" );
+        buffer.position( 3 );
+        assertEquals( "from position", bits( true, true ), checkAlphanumericValues( buffer, (byte) ',', null ) );
+        assertEquals( "position", 3, buffer.position() );
+    }
+
+    @Test public final void pruneRemovesEmptyEntries() {
+        final HashMap<String, Serializable> graph = map( "kept", "value", "blank", " ", "nothing", null,
+                "empty", new ArrayList<Serializable>(), "array", new String[0],
+                "nested", map( "blank", "", "list", list( null, map() ) ), "mixed", list( null, "value", " " ) );
+        prune( graph );
+        assertEquals( "pruned", map( "kept", "value", "mixed", list( "value" ) ), graph );
+    }
+
+    @Test public final void pruneInParallel() {
+        final ArrayList<Serializable> items = new ArrayList<Serializable>();
+        final ArrayList<Serializable> expected = new ArrayList<Serializable>();
+        for( int i=0;i<200;i++ ) {
+            items.add( map( "id", Integer.toString( i ), "blank", " " ) );
+            expected.add( map( "id", Integer.toString( i ) ) );
+        }
+        final HashMap<String, Serializable> graph = map( "items", items, "empty", map() );
+        prune( graph, ForkJoinPool.commonPool() );
+        assertEquals( "pruned", map( "items", expected ), graph );
+    }
+
+    @Test public final void pruneSharedNodesOnce() {
+        final HashMap<String, Serializable> shared = map( "blank", " " );
+        final HashMap<String, Serializable> kept = map( "value", "x", "blank", " " );
+        final HashMap<String, Serializable> graph = map( "first", map( "shared", shared, "kept", kept ),
+                "second", map( "shared", shared, "kept", kept ) );
+        prune( graph );
+        assertEquals( "pruned", map( "first", map( "kept", map( "value", "x" ) ),
+                "second", map( "kept", map( "value", "x" ) ) ), graph );
+    }
+
+    @Test public final void pruneCycles() {
+        final HashMap<String, Serializable> graph = map( "blank", " " );
+        final ArrayList<Serializable> loop = list( graph, null );
+        graph.put( "loop", loop );
+        prune( graph );
+        assertEquals( "graph", 1, graph.size() );
+        assertEquals( "loop", 1, loop.size() );
+        assertTrue( "cycle kept", loop.get( 0 ) == graph );
+    }
+
+    @Test public final void pruneLeavesUnmodifiableEntries() {
+        final HashMap<String, Serializable> inner = map( "value", "x", "blank", " " );
+        final HashMap<String, Serializable> graph = map(
+                "unmodifiable", (Serializable) Collections.unmodifiableList( list( inner, null ) ),
+                "fixed", (Serializable) Arrays.<Serializable>asList( "value", " " ) );
+        prune( graph );
+        assertEquals( "contents pruned", map( "value", "x" ), inner );
+        assertEquals( "unmodifiable kept", list( inner, null ), graph.get( "unmodifiable" ) );
+        assertEquals( "fixed size kept", list( "value", " " ), graph.get( "fixed" ) );
+    }
+
+    @Test public final void deleteLargeFolders() throws Exception {
+        final Path root = Files.createTempDirectory( "delete" );
+        for( int i=0;i<1000;i++ ) {
+            Files.createFile( root.resolve( "file-" + i ) );
+        }
+        Files.createFile( Files.createDirectories( root.resolve( "a/b/c" ) ).resolve( "leaf" ) );
+        final DeleteResult result = Utilities.delete( root );
+        assertTrue( result.toString(), result.isSuccessful() );
+        assertEquals( "deleted", 1000L + 1 + 3 + 1, result.getDeletedCount() );
+        assertFalse( "root", Files.exists( root ) );
+    }
+
+    @Test public final void deleteDoesNotFollowLinks() throws Exception {
+        final Path outside = Files.createTempDirectory( "outside" );
+        final Path kept = Files.createFile( outside.resolve( "kept" ) );
+        final Path root = Files.createTempDirectory( "delete" );
+        try {
+            Files.createSymbolicLink( root.resolve( "folder" ), outside );
+            Files.createSymbolicLink( root.resolve( "file" ), kept );
+            final DeleteResult result = Utilities.delete( root );
+            assertTrue( result.toString(), result.isSuccessful() );
+            assertEquals( "deleted", 3L, result.getDeletedCount() );
+            assertFalse( "root", Files.exists( root ) );
+            assertTrue( "linked file", Files.exists( kept ) );
+        } finally {
+            Utilities.delete( outside );
+        }
+    }
+
+    @Test public final void deleteReportsFailures() throws Exception {
+        final Path missing = Files.createTempDirectory( "delete" ).resolve( "missing" );
+        final DeleteResult result = Utilities.delete( missing );
+        assertFalse( "successful", result.isSuccessful() );
+        assertEquals( "deleted", 0L, result.getDeletedCount() );
+        assertTrue( result.toString(), result.getFailures().get( missing ) instanceof NoSuchFileException );
+        Utilities.delete( missing.getParent() );
+    }
+
+    @Test public final void deleteAsync() throws Exception {
+        final Path root = Files.createTempDirectory( "delete" );
+        Files.createFile( Files.createDirectories( root.resolve( "a" ) ).resolve( "leaf" ) );
+        final DeleteResult result = Utilities.deleteAsync( root ).get( 60, TimeUnit.SECONDS );
+        assertTrue( result.toString(), result.isSuccessful() );
+        assertEquals( "deleted", 3L, result.getDeletedCount() );
+        assertFalse( "root", Files.exists( root ) );
+    }
+
+    /**
+     * @param entries keys and values
+     * @return modifiable map of the entries
+     */
+    private static HashMap<String, Serializable> map(final Serializable... entries) {
+        final HashMap<String, Serializable> map = new HashMap<String, Serializable>();
+        for( int i=0;i<entries.length;i+=2 ) {
+            map.put( (String) entries[i], entries[i + 1] );
+        }
+        return map;
+    }
+
+    /**
+     * @param values
+     * @return modifiable list of the values
+     */
+    private static ArrayList<Serializable> list(final Serializable... values) {
+        return new ArrayList<Serializable>( Arrays.asList( values ) );
+    }
+
+    /**
+     * @param values
+     * @return the values as bits
+     */
+    private static BitSet bits(final boolean... values) {
+        final BitSet bits = new BitSet();
+        for( int i=0;i<values.length;i++ ) {
+            bits.set( i, values[i] );
+        }
+        return bits;
+    }
+
+    /**
+     * @param value
+     * @return the value encoded as UTF-8
+     */
+    private static ByteBuffer utf8(final String value) {
+        return ByteBuffer.wrap( value.getBytes( StandardCharsets.UTF_8 ) );
+    }
+}